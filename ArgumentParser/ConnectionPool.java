@@ -0,0 +1,248 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps open connections to web servers so that fetching several pages from
+ * the same host reuses one socket instead of connecting again for every page.
+ *
+ * Idle connections are kept per host and port, most recently used first, and
+ * at most a few are kept for every host. A connection that has been idle for
+ * too long is closed instead of reused, since the server has most likely
+ * closed its end by then.
+ *
+ * Connecting and every read give up after a timeout with a
+ * {@link java.net.SocketTimeoutException}, so a server that accepts a
+ * connection and then stalls cannot hold up a fetch forever.
+ *
+ * @author CaylaR
+ *
+ */
+public class ConnectionPool {
+
+	/** The default number of idle connections kept per host. */
+	public static final int IDLE = 8;
+
+	/** The default time in milliseconds an idle connection is kept. */
+	public static final long TIMEOUT = 30000;
+
+	/**
+	 * The default time in milliseconds to wait for a connection to open or
+	 * for more of a response.
+	 */
+	public static final int READ_TIMEOUT = 10000;
+
+	private final ConcurrentHashMap<String, ConcurrentLinkedDeque<Connection>> idle;
+	private final int maximum;
+	private final long timeout;
+	private final int readTimeout;
+
+	private final LongAdder opened;
+	private final LongAdder reused;
+
+	/**
+	 * Starts an empty pool with the default limits.
+	 */
+	public ConnectionPool() {
+		this(IDLE, TIMEOUT, READ_TIMEOUT);
+	}
+
+	/**
+	 * Starts an empty pool.
+	 *
+	 * @param maximum
+	 *            - number of idle connections kept per host
+	 * @param timeout
+	 *            - milliseconds an idle connection is kept
+	 */
+	public ConnectionPool(int maximum, long timeout) {
+		this(maximum, timeout, READ_TIMEOUT);
+	}
+
+	/**
+	 * Starts an empty pool.
+	 *
+	 * @param maximum
+	 *            - number of idle connections kept per host
+	 * @param timeout
+	 *            - milliseconds an idle connection is kept
+	 * @param readTimeout
+	 *            - milliseconds to wait for a connection to open or for more
+	 *            of a response
+	 */
+	public ConnectionPool(int maximum, long timeout, int readTimeout) {
+		this.idle = new ConcurrentHashMap<>();
+		this.maximum = maximum;
+		this.timeout = timeout;
+		this.readTimeout = readTimeout;
+		this.opened = new LongAdder();
+		this.reused = new LongAdder();
+	}
+
+	/**
+	 * Returns an idle connection to the host if there is one, or opens a new
+	 * one. The connection must be given back with {@link #release(Connection)}
+	 * or closed once the response has been read.
+	 *
+	 * @param host
+	 * @param port
+	 * @return connection to the host
+	 * @throws IOException
+	 *             if a new connection cannot be opened
+	 */
+	public Connection acquire(String host, int port) throws IOException {
+		ConcurrentLinkedDeque<Connection> connections = idle.get(key(host,
+				port));
+		if (connections != null) {
+			long now = System.currentTimeMillis();
+			Connection connection;
+			while ((connection = connections.pollFirst()) != null) {
+				if (!connection.socket.isClosed()
+						&& now - connection.idleSince < timeout) {
+					connection.reused = true;
+					reused.increment();
+					return connection;
+				}
+				connection.close();
+			}
+		}
+
+		opened.increment();
+		return new Connection(host, port, readTimeout);
+	}
+
+	/**
+	 * Gives back a connection whose response has been read completely, so it
+	 * can be reused for the next request to the same host.
+	 *
+	 * @param connection
+	 */
+	public void release(Connection connection) {
+		String key = key(connection.host, connection.port);
+		ConcurrentLinkedDeque<Connection> connections = idle.get(key);
+		if (connections == null) {
+			ConcurrentLinkedDeque<Connection> created = new ConcurrentLinkedDeque<>();
+			connections = idle.putIfAbsent(key, created);
+			if (connections == null) {
+				connections = created;
+			}
+		}
+
+		if (connections.size() >= maximum) {
+			connection.close();
+			return;
+		}
+		connection.idleSince = System.currentTimeMillis();
+		connections.offerFirst(connection);
+	}
+
+	/**
+	 * Closes every idle connection.
+	 */
+	public void close() {
+		for (Map.Entry<String, ConcurrentLinkedDeque<Connection>> entry : idle
+				.entrySet()) {
+			Connection connection;
+			while ((connection = entry.getValue().pollFirst()) != null) {
+				connection.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of connections opened.
+	 *
+	 * @return number of connections opened
+	 */
+	public long opened() {
+		return opened.sum();
+	}
+
+	/**
+	 * Returns the number of times an idle connection was reused.
+	 *
+	 * @return number of connections reused
+	 */
+	public long reused() {
+		return reused.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "Connections opened: " + opened() + ", reused: " + reused();
+	}
+
+	private static String key(String host, int port) {
+		return host + ":" + port;
+	}
+
+	/**
+	 * An open socket to a web server with buffered streams.
+	 */
+	public static class Connection {
+
+		private final String host;
+		private final int port;
+		private final Socket socket;
+		private final InputStream input;
+		private final OutputStream output;
+
+		private volatile long idleSince;
+		private volatile boolean reused;
+
+		private Connection(String host, int port, int timeout)
+				throws IOException {
+			this.host = host;
+			this.port = port;
+			this.socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress(host, port), timeout);
+				socket.setSoTimeout(timeout);
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+			this.input = new BufferedInputStream(socket.getInputStream());
+			this.output = new BufferedOutputStream(socket.getOutputStream());
+			this.reused = false;
+		}
+
+		public InputStream input() {
+			return input;
+		}
+
+		public OutputStream output() {
+			return output;
+		}
+
+		/**
+		 * Tests if the connection was used for an earlier request, in which
+		 * case the server may have closed it in the meantime.
+		 *
+		 * @return true if the connection came from the pool
+		 */
+		public boolean isReused() {
+			return reused;
+		}
+
+		/**
+		 * Closes the connection, ignoring any error.
+		 */
+		public void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing left to do with a broken connection
+			}
+		}
+	}
+}
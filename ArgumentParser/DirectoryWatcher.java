@@ -0,0 +1,352 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an InvertedIndex of a directory up to date while the files in it
+ * change, using a {@link WatchService} on every directory of the tree that
+ * {@link DirectoryTraverser} walks.
+ *
+ * Changes are collected into a batch instead of being applied one event at a
+ * time. A batch is applied once no change has been seen for a short quiet
+ * period, so a file written in many pieces is only parsed once, but never
+ * later than a few seconds after its first change even while changes keep
+ * coming. Changed files are parsed again with
+ * {@link InvertedIndex#replace(Path, List)}, so searches see either the old
+ * or the new file, and deleted files and directories are deleted from the
+ * index. If events are lost, the whole tree is compared with the index.
+ *
+ * <pre>
+ * DirectoryWatcher watcher = new DirectoryWatcher(index, directory) {
+ * 	protected void updated(int changed, int deleted) {
+ * 	}
+ * };
+ * watcher.watch();
+ * </pre>
+ *
+ * @author CaylaR
+ *
+ */
+public class DirectoryWatcher {
+
+	/** The default milliseconds without changes before a batch is applied. */
+	public static final long QUIET = 500;
+
+	/** The most milliseconds a change waits while changes keep coming. */
+	public static final long LIMIT = 5000;
+
+	private final InvertedIndex index;
+	private final Path directory;
+	private final long quiet;
+	private final WatchService service;
+	private final Map<WatchKey, Path> keys;
+
+	/** Files of the directory in the index, by normalized absolute path. */
+	private final TreeSet<String> indexed;
+
+	private final LinkedHashSet<Path> changed;
+	private final LinkedHashSet<Path> deleted;
+	private boolean rescan;
+	private long first;
+	private long last;
+
+	private int batches;
+	private int parsed;
+	private int removed;
+
+	/**
+	 * Starts watching a directory whose files have already been added to the
+	 * index, waiting the default quiet period before applying changes.
+	 *
+	 * @param index
+	 * @param directory
+	 * @throws IOException
+	 *             if the directory cannot be watched
+	 */
+	public DirectoryWatcher(InvertedIndex index, Path directory)
+			throws IOException {
+		this(index, directory, QUIET);
+	}
+
+	/**
+	 * Starts watching a directory whose files have already been added to the
+	 * index.
+	 *
+	 * @param index
+	 * @param directory
+	 * @param quiet
+	 *            - milliseconds without changes before a batch is applied
+	 * @throws IOException
+	 *             if the directory cannot be watched
+	 */
+	public DirectoryWatcher(InvertedIndex index, Path directory, long quiet)
+			throws IOException {
+		this.index = index;
+		this.directory = directory.toAbsolutePath().normalize();
+		this.quiet = Math.max(quiet, 0);
+		this.service = directory.getFileSystem().newWatchService();
+		this.keys = new HashMap<>();
+		this.indexed = new TreeSet<>();
+		this.changed = new LinkedHashSet<>();
+		this.deleted = new LinkedHashSet<>();
+
+		register(this.directory);
+		for (String file : DirectoryTraverser.traverse(this.directory)) {
+			indexed.add(document(Paths.get(file)));
+		}
+	}
+
+	/**
+	 * Called after every batch of changes has been applied to the index. May
+	 * be overridden.
+	 *
+	 * @param changed
+	 *            - number of files added or parsed again
+	 * @param deleted
+	 *            - number of files deleted from the index
+	 */
+	protected void updated(int changed, int deleted) {
+	}
+
+	/**
+	 * Watches the directory and applies the changes to the index until the
+	 * watcher is closed or the thread is interrupted.
+	 */
+	public void watch() {
+		while (true) {
+			boolean waiting = pending();
+			WatchKey key;
+			try {
+				if (!waiting) {
+					key = service.take();
+				} else {
+					long wait = Math.min(last + quiet, first + LIMIT)
+							- System.currentTimeMillis();
+					if (wait <= 0) {
+						apply();
+						continue;
+					}
+					key = service.poll(wait, TimeUnit.MILLISECONDS);
+					if (key == null) {
+						apply();
+						continue;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ClosedWatchServiceException e) {
+				break;
+			}
+
+			Path parent = keys.get(key);
+			boolean batched = false;
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					rescan = true;
+					batched = true;
+				} else if (parent != null) {
+					batched |= event(parent.resolve((Path) event.context()),
+							event.kind());
+				}
+			}
+			if (!key.reset()) {
+				keys.remove(key);
+			}
+
+			if (batched) {
+				last = System.currentTimeMillis();
+				if (!waiting) {
+					first = last;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops watching. A batch still waiting is not applied.
+	 */
+	public void close() {
+		try {
+			service.close();
+		} catch (IOException e) {
+			System.err.println("Unable to close watcher " + e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Batches: " + batches + ", changed: " + parsed + ", deleted: "
+				+ removed;
+	}
+
+	/**
+	 * Adds a single event to the batch.
+	 *
+	 * @param path
+	 *            - file or directory the event is about
+	 * @param kind
+	 * @return true if the event changed the batch
+	 */
+	private boolean event(Path path, WatchEvent.Kind<?> kind) {
+		if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+			if (!text(path) && indexed(document(path)).isEmpty()) {
+				return false;
+			}
+			changed.remove(path);
+			deleted.add(path);
+		} else if (Files.isDirectory(path)) {
+			if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+				// files may have been added before the directory was watched
+				register(path);
+				for (String file : DirectoryTraverser.traverse(path)) {
+					deleted.remove(Paths.get(file));
+					changed.add(Paths.get(file));
+				}
+			}
+		} else if (text(path)) {
+			deleted.remove(path);
+			changed.add(path);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tests whether a batch is waiting to be applied.
+	 *
+	 * @return true if there are changes in the batch
+	 */
+	private boolean pending() {
+		return rescan || !changed.isEmpty() || !deleted.isEmpty();
+	}
+
+	/**
+	 * Applies the batch of changes to the index.
+	 */
+	private void apply() {
+		if (rescan) {
+			rescan();
+		}
+
+		int before = removed;
+		for (Path path : deleted) {
+			for (String file : indexed(document(path))) {
+				index.delete(file);
+				indexed.remove(file);
+				removed++;
+			}
+		}
+
+		int count = 0;
+		for (Path path : changed) {
+			String document = document(path);
+			try {
+				index.replace(document, IndexBuilder.words(path));
+				indexed.add(document);
+				count++;
+			} catch (IOException e) {
+				// the file was deleted or moved again since it changed
+				if (indexed.remove(document)) {
+					index.delete(document);
+					removed++;
+				}
+			}
+		}
+		parsed += count;
+		batches++;
+
+		int gone = removed - before;
+		changed.clear();
+		deleted.clear();
+		updated(count, gone);
+	}
+
+	/**
+	 * Compares the whole tree with the index after events were lost, adding
+	 * every file to the batch and deleting the files no longer there.
+	 */
+	private void rescan() {
+		rescan = false;
+		register(directory);
+		TreeSet<String> missing = new TreeSet<>(indexed);
+		for (String file : DirectoryTraverser.traverse(directory)) {
+			Path path = Paths.get(file);
+			missing.remove(document(path));
+			changed.add(path);
+		}
+		for (String file : missing) {
+			deleted.add(Paths.get(file));
+		}
+	}
+
+	/**
+	 * Returns the files in the index that a deleted path was, or was the
+	 * directory of.
+	 *
+	 * @param document
+	 *            - normalized absolute path of a file or directory
+	 * @return files in the index
+	 */
+	private List<String> indexed(String document) {
+		List<String> files = new ArrayList<>(indexed.subSet(document
+				+ File.separator, document + (char) (File.separatorChar + 1)));
+		if (indexed.contains(document)) {
+			files.add(document);
+		}
+		return files;
+	}
+
+	/**
+	 * Watches a directory and every directory below it.
+	 *
+	 * @param path
+	 */
+	private void register(Path path) {
+		try {
+			keys.put(path.register(service,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE,
+					StandardWatchEventKinds.ENTRY_MODIFY), path);
+			try (DirectoryStream<Path> listing = Files.newDirectoryStream(path)) {
+				for (Path file : listing) {
+					if (Files.isDirectory(file)) {
+						register(file);
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Bad Directory:  " + path);
+		}
+	}
+
+	/**
+	 * Tests whether a file is one {@link DirectoryTraverser} would list.
+	 *
+	 * @param path
+	 * @return true for .txt files
+	 */
+	private static boolean text(Path path) {
+		return path.toString().toLowerCase().endsWith(".txt");
+	}
+
+	private static String document(Path path) {
+		return path.toAbsolutePath().normalize().toString();
+	}
+}
@@ -0,0 +1,258 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns document paths to small integer ids so that postings only have to
+ * store an int per document instead of repeating the full path string. Looking
+ * up a known path does not lock, only assigning a new id does.
+ *
+ * Ids are never reused. A deleted document keeps its id, which is hidden so
+ * its postings can be skipped until they are removed, and adding the path
+ * again gives it a new id. A document can also be given a new hidden id that
+ * is only swapped in for the old one once its new postings are complete.
+ *
+ * @author CaylaR
+ *
+ */
+public class DocumentTable {
+
+	private final ConcurrentHashMap<String, Integer> ids;
+	private volatile String[] paths;
+	private int size;
+
+	/**
+	 * Bit set of hidden ids. It is never changed once published: every change
+	 * is made to a copy while holding the lock, and the copy replaces it, so
+	 * readers always see a whole bit set.
+	 */
+	private volatile long[] hidden;
+	private int retired;
+
+	public DocumentTable() {
+		ids = new ConcurrentHashMap<>();
+		paths = new String[16];
+		size = 0;
+		hidden = new long[1];
+		retired = 0;
+	}
+
+	/**
+	 * Returns the id of the given path, assigning the next free id if the path
+	 * has not been seen before.
+	 *
+	 * @param path
+	 * @return document id
+	 */
+	public int id(String path) {
+		Integer id = ids.get(path);
+		if (id == null) {
+			id = assign(path);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the given path without assigning one.
+	 *
+	 * @param path
+	 * @return document id, or -1 if the path has not been seen
+	 */
+	public int find(String path) {
+		Integer id = ids.get(path);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Assigns the next free id to a path, unless another thread assigned one
+	 * first.
+	 *
+	 * @param path
+	 * @return document id
+	 */
+	private synchronized int assign(String path) {
+		Integer id = ids.get(path);
+		if (id != null) {
+			return id;
+		}
+
+		id = append(path);
+		ids.put(path, id);
+		return id;
+	}
+
+	/**
+	 * Gives a path a new hidden id without changing the id it is known by,
+	 * so postings can be added for the new id before it is published with
+	 * {@link #publish(String, int)}.
+	 *
+	 * @param path
+	 * @return new hidden document id
+	 */
+	public synchronized int reserve(String path) {
+		int id = append(path);
+		hide(id);
+		return id;
+	}
+
+	/**
+	 * Makes a reserved id the id of its path, hiding the id the path had
+	 * before.
+	 *
+	 * @param path
+	 * @param id
+	 *            - id returned by {@link #reserve(String)}
+	 * @return the id the path had before, or -1 if it had none
+	 */
+	public synchronized int publish(String path, int id) {
+		Integer old = ids.put(path, id);
+		long[] bits = copy(old == null ? id : Math.max(id, old));
+		bits[id >>> 6] &= ~(1L << id);
+		if (old == null) {
+			hidden = bits;
+			return -1;
+		}
+		bits[old >>> 6] |= 1L << old;
+		hidden = bits;
+		retired++;
+		return old;
+	}
+
+	/**
+	 * Hides the id of a path, so the path gets a new id if it is added again.
+	 *
+	 * @param path
+	 * @return the hidden id, or -1 if the path has no id
+	 */
+	public synchronized int retire(String path) {
+		Integer id = ids.remove(path);
+		if (id == null) {
+			return -1;
+		}
+		hide(id);
+		retired++;
+		return id;
+	}
+
+	/**
+	 * Tests whether a document id is still in use, rather than deleted,
+	 * replaced or reserved.
+	 *
+	 * @param id
+	 * @return true if the id is not hidden
+	 */
+	public boolean live(int id) {
+		long[] bits = hidden;
+		return (id >>> 6) >= bits.length || (bits[id >>> 6] & (1L << id)) == 0;
+	}
+
+	/**
+	 * Returns the number of documents deleted or replaced so far.
+	 *
+	 * @return number of retired ids
+	 */
+	public synchronized int retired() {
+		return retired;
+	}
+
+	/**
+	 * Stores a path under the next free id.
+	 *
+	 * @param path
+	 * @return new document id
+	 */
+	private int append(String path) {
+		String[] current = paths;
+		if (size == current.length) {
+			current = Arrays.copyOf(current, size * 2);
+		}
+		current[size] = path;
+		paths = current;
+		return size++;
+	}
+
+	/**
+	 * Sets the hidden bit of an id and publishes the change.
+	 *
+	 * @param id
+	 */
+	private void hide(int id) {
+		long[] bits = copy(id);
+		bits[id >>> 6] |= 1L << id;
+		hidden = bits;
+	}
+
+	/**
+	 * Copies the hidden bit set to change it, large enough to hold the given
+	 * id.
+	 *
+	 * @param id
+	 * @return copy of the bit set
+	 */
+	private long[] copy(int id) {
+		long[] bits = hidden;
+		int length = bits.length;
+		if ((id >>> 6) >= length) {
+			length = Math.max(length * 2, (id >>> 6) + 1);
+		}
+		return Arrays.copyOf(bits, length);
+	}
+
+	/**
+	 * Returns the path stored for the given document id.
+	 *
+	 * @param id
+	 * @return path of the document
+	 */
+	public String path(int id) {
+		return paths[id];
+	}
+
+	/**
+	 * Returns the number of documents in the table.
+	 *
+	 * @return number of documents
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the rank of every document when sorted by path, indexed by
+	 * document id. Comparing ranks gives the same order as comparing the path
+	 * strings. Hidden ids are ranked -1, before every document in use.
+	 *
+	 * @return array of ranks indexed by document id
+	 */
+	public int[] ranks() {
+		int total = size();
+		int[] ranks = new int[total];
+		int count = 0;
+		for (int i = 0; i < total; i++) {
+			if (live(i)) {
+				count++;
+			} else {
+				ranks[i] = -1;
+			}
+		}
+
+		Integer[] order = new Integer[count];
+		final String[] paths = this.paths;
+		for (int i = 0, k = 0; i < total; i++) {
+			if (ranks[i] == 0) {
+				order[k++] = i;
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return paths[a].compareTo(paths[b]);
+			}
+		});
+
+		for (int i = 0; i < order.length; i++) {
+			ranks[order[i]] = i;
+		}
+		return ranks;
+	}
+}
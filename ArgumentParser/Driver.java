@@ -1,5 +1,8 @@
+import java.io.IOException;
+import java.net.InetAddress;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 /**
  * This class checks the command line arguments and if the proper command-line
@@ -20,8 +23,8 @@ public class Driver {
 	 * flag to tell the InvertedIndex how many threads to use for
 	 * multi-threading. If no value is specified the default value of 5 is used.
 	 * If no -t is given the InvertedIndex continues to work using a single
-	 * thread.This list of files is then gone through and each file is passed to
-	 * the WordParser. The WordParser takes the path and cleans and separates
+	 * thread. This list of files is then gone through and each file is passed
+	 * to the WordParser. The WordParser takes the path and cleans and separates
 	 * all of the words within the file and adds them to a list of words. This
 	 * list of words and the file path associated with it are then passed into
 	 * the InvertedIndex. The InvertedIndex then takes that information and adds
@@ -35,6 +38,44 @@ public class Driver {
 	 * for the piece of word specified. Then checks if there is a result file
 	 * requested then outputs the results from the search into that text file.
 	 * 
+	 * The other flags are:
+	 * <ul>
+	 * <li>-m: with -t, builds a mini InvertedIndex per file and merges them in
+	 * parallel instead of adding every word to the shared InvertedIndex.</li>
+	 * <li>-s [file]: saves the InvertedIndex as a binary segment (index.seg by
+	 * default).</li>
+	 * <li>-l file: opens a previously saved segment, which is then used for the
+	 * output and the search instead of the InvertedIndex.</li>
+	 * <li>-u link: crawls the web starting at the link. With -u, -v [limit]
+	 * crawls every link on a virtual thread of its own, fetching at most limit
+	 * links at once (100 by default), -n sets the number of links crawled (50
+	 * by default), and at most -p requests are sent to one host at once (2 by
+	 * default), at least -w milliseconds apart (100 by default).</li>
+	 * <li>-a [segment]: with -d, keeps the InvertedIndex saved as a segment
+	 * (index.seg by default) and batches of changed files next to it, with a
+	 * manifest of the files in them, and only parses the files that were
+	 * added or changed since it was saved, removing the files that were
+	 * deleted.</li>
+	 * <li>-f [quiet]: with -d, keeps running and updates the InvertedIndex, the
+	 * output and the results whenever files in the directory change.</li>
+	 * <li>-port [port]: keeps the index in memory and answers searches over
+	 * HTTP on the given port (8080 by default), using -workers threads (5 by
+	 * default). Only connections from this machine are accepted, unless
+	 * -public is given to listen on every interface.</li>
+	 * <li>-shards n: splits the InvertedIndex into n shards by word, which are
+	 * merged into and searched by -t threads at once.</li>
+	 * <li>-nodes host:port,...: searches processes serving their own documents
+	 * with -port instead of the InvertedIndex, waiting at most -timeout
+	 * milliseconds for each (1000 by default).</li>
+	 * <li>-metrics [millis]: makes the counts of documents, words, merges,
+	 * searches, fetches and queued work readable over JMX and prints them
+	 * every given number of milliseconds (10000 by default) and once
+	 * everything else is done.</li>
+	 * <li>-c [size]: keeps the results of repeated queries in a cache of the
+	 * given size.</li>
+	 * </ul>
+	 * With -t, the queries are searched by several threads and their results
+	 * are written as soon as they are found, in the order of the query file.
 	 * 
 	 * @param args
 	 */
@@ -42,33 +83,123 @@ public class Driver {
 
 		ArgumentParser myargs = new ArgumentParser(args);
 
-		InvertedIndex inv = new InvertedIndex();
-
 		QueryParser parser = new QueryParser();
 
 		Path input, output = null, queryPath, queryoutput = null;
 
 		int queue = 5;
+
+		if (myargs.hasFlag("-metrics")) {
+			long period = 10000;
+			if (myargs.hasValue("-metrics")) {
+				try {
+					period = Long.parseLong(myargs.getValue("-metrics"));
+				} catch (NumberFormatException e) {
+					System.err.println("Unacceptable " + e);
+				}
+			}
+			Metrics.GLOBAL.register();
+			Metrics.GLOBAL.dump(System.out, period);
+		}
+
+		InvertedIndex inv = new InvertedIndex();
+		ShardedInvertedIndex sharded = null;
+		if (myargs.hasValue("-shards")) {
+			try {
+				int threads = 0;
+				if (myargs.hasFlag("-t")) {
+					threads = myargs.hasValue("-t") ? Integer.parseInt(myargs
+							.getValue("-t")) : queue;
+				}
+				sharded = new ShardedInvertedIndex(Integer.parseInt(myargs
+						.getValue("-shards")), threads);
+				inv = sharded;
+			} catch (NumberFormatException e) {
+				System.err.println("Unacceptable " + e);
+			}
+		}
 		
 		// TODO Move this here
 		if (myargs.hasFlag("-u")) {
 			if (myargs.getValue("-u") != null) {
-				WebCrawler crawler = new WebCrawler(inv, queue);
+				int pages = URLFrontier.DEFAULT;
+				if (myargs.hasValue("-n")) {
+					try {
+						pages = Integer.parseInt(myargs.getValue("-n"));
+					} catch (NumberFormatException e) {
+						System.err.println("Unacceptable " + e);
+					}
+				}
+				int connections = HostScheduler.CONNECTIONS;
+				long delay = HostScheduler.DELAY;
+				try {
+					if (myargs.hasValue("-p")) {
+						connections = Integer.parseInt(myargs.getValue("-p"));
+					}
+					if (myargs.hasValue("-w")) {
+						delay = Long.parseLong(myargs.getValue("-w"));
+					}
+				} catch (NumberFormatException e) {
+					System.err.println("Unacceptable " + e);
+				}
+				WebCrawler crawler;
+				if (myargs.hasFlag("-v")) {
+					int limit = WebCrawler.CONNECTIONS;
+					if (myargs.hasValue("-v")) {
+						try {
+							limit = Integer.parseInt(myargs.getValue("-v"));
+						} catch (NumberFormatException e) {
+							System.err.println("Unacceptable " + e);
+						}
+					}
+					crawler = new WebCrawler(inv, limit, true, pages,
+							connections, delay);
+				} else {
+					crawler = new WebCrawler(inv, queue, false, pages,
+							connections, delay);
+				}
 				crawler.crawl(myargs.getValue("-u"));
 				crawler.shutdown();
+				System.out.println(crawler);
+			}
+		}
+
+		if (myargs.hasFlag("-a") && myargs.hasValue("-d")) {
+			Path saved = Paths.get(myargs.hasValue("-a") ? myargs.getValue("-a")
+					: "index.seg");
+			int threads = 0;
+			if (myargs.hasFlag("-t")) {
+				threads = queue;
+				if (myargs.hasValue("-t")) {
+					try {
+						threads = Integer.parseInt(myargs.getValue("-t"));
+					} catch (NumberFormatException e) {
+						System.err.println("Unacceptable " + e);
+					}
+				}
 			}
+			IncrementalIndexBuilder builder = new IncrementalIndexBuilder(inv,
+					saved, threads);
+			builder.update(Paths.get(myargs.getValue("-d")));
+			System.out.println(builder);
 		}
 
-		if (myargs.hasFlag("-t")) {
+		else if (myargs.hasFlag("-t")) {
 			if (myargs.getValue("-t") != null) {
 				try {
 					queue = Integer.parseInt(myargs.getValue("-t"));
 					if (queue != 0) {
 						MultithreadedInvertedIndexBuilder thread = new MultithreadedInvertedIndexBuilder(
 								inv, queue);
-						if (myargs.hasValue("-d")) {
+						if (!myargs.hasValue("-d")) {
+							thread.shutdown();
+						} else {
 							input = Paths.get(myargs.getValue("-d"));
-							thread.addMainInvertedIndex(input);
+							if (myargs.hasFlag("-m")) {
+								thread.mergeMainInvertedIndex(input);
+							} else {
+								thread.addMainInvertedIndex(input);
+							}
 							thread.shutdown();
 							MultithreadedQueryParser queryThread = new MultithreadedQueryParser(
 									inv, queue);
@@ -85,9 +216,15 @@ public class Driver {
 			} else {
 				MultithreadedInvertedIndexBuilder thread = new MultithreadedInvertedIndexBuilder(
 						inv, queue);
-				if (myargs.hasValue("-d")) {
+				if (!myargs.hasValue("-d")) {
+					thread.shutdown();
+				} else {
 					input = Paths.get(myargs.getValue("-d"));
-					thread.addMainInvertedIndex(input);
+					if (myargs.hasFlag("-m")) {
+						thread.mergeMainInvertedIndex(input);
+					} else {
+						thread.addMainInvertedIndex(input);
+					}
 					thread.shutdown();
 					MultithreadedQueryParser queryThread = new MultithreadedQueryParser(
 							inv, queue);
@@ -117,22 +254,99 @@ public class Driver {
 		else {
 			System.out.println("There was no -d Flag entered.");
 		}
+		IndexSegment segment = null;
+		Searchable searchable = inv;
+		if (myargs.hasFlag("-l")) {
+			if (myargs.getValue("-l") != null) {
+				try {
+					segment = new IndexSegment(Paths.get(myargs.getValue("-l")));
+					searchable = segment;
+				} catch (IOException e) {
+					System.err.println("Unable to open segment " + e);
+				}
+			} else {
+				System.out.println("There was no segment file entered.");
+			}
+		}
+
+		if (myargs.hasValue("-nodes")) {
+			int timeout = SearchCoordinator.TIMEOUT;
+			if (myargs.hasValue("-timeout")) {
+				try {
+					timeout = Integer.parseInt(myargs.getValue("-timeout"));
+				} catch (NumberFormatException e) {
+					System.err.println("Unacceptable " + e);
+				}
+			}
+			searchable = new SearchCoordinator(Arrays.asList(myargs.getValue(
+					"-nodes").split(",")), timeout);
+		}
+
+		QueryCache cache = null;
+		if (myargs.hasFlag("-c")) {
+			try {
+				if (myargs.getValue("-c") != null) {
+					cache = new QueryCache(searchable,
+							Integer.parseInt(myargs.getValue("-c")));
+				} else {
+					cache = new QueryCache(searchable);
+				}
+				searchable = cache;
+			} catch (NumberFormatException e) {
+				System.err.println("Unacceptable cache size " + e);
+			}
+		}
+
+		if (myargs.hasFlag("-s")) {
+			if (myargs.getValue("-s") != null) {
+				inv.outputSegment(Paths.get(myargs.getValue("-s")));
+			} else {
+				inv.outputSegment(Paths.get("index.seg"));
+			}
+		}
+
 		if (myargs.hasFlag("-i")) {
 			if (myargs.getValue("-i") != null) {
 				output = Paths.get(myargs.getValue("-i"));
 			} else {
 				output = Paths.get("index.txt");
 			}
-			inv.outputInvertedIndex(output);
+			if (segment != null) {
+				segment.outputInvertedIndex(output);
+			} else if (myargs.hasFlag("-t") && queue > 0) {
+				inv.outputInvertedIndex(output, queue);
+			} else {
+				inv.outputInvertedIndex(output);
+			}
 		} else {
 			System.out.println("No Output.");
 		}
 
+		if (myargs.hasFlag("-r")) {
+			if (myargs.getValue("-r") != null) {
+				queryoutput = Paths.get(myargs.getValue("-r"));
+			} else {
+				queryoutput = Paths.get("results.txt");
+			}
+		}
+		boolean streamed = false;
+
 		if (myargs.hasFlag("-q")) {
 			if (myargs.getValue("-q") != null) {
 				queryPath = Paths.get(myargs.getValue("-q"));
 
-				parser.queryParser(queryPath, inv);
+				if (myargs.hasFlag("-t") && queue > 0 && queryoutput != null) {
+					MultithreadedQueryParser queryThread = new MultithreadedQueryParser(
+							searchable, queue);
+					queryThread.queryParser(queryPath, searchable, queryoutput);
+					queryThread.shutdown();
+					streamed = true;
+				} else {
+					parser.queryParser(queryPath, searchable);
+				}
+				if (cache != null) {
+					System.out.println(cache);
+				}
 			} else {
 				System.out.println("There was no query file entered.");
 			}
@@ -140,15 +354,100 @@ public class Driver {
 			System.out.println("There was no -q Flag entered.");
 		}
 
-		if (myargs.hasFlag("-r")) {
-			if (myargs.getValue("-r") != null) {
-				queryoutput = Paths.get(myargs.getValue("-r"));
-			} else {
-				queryoutput = Paths.get("results.txt");
+		if (queryoutput != null) {
+			if (!streamed) {
+				parser.write(queryoutput.toString());
 			}
-			parser.write(queryoutput.toString());
 		} else {
 			System.out.println("There was no result file requested.");
 		}
+
+		if (myargs.hasFlag("-port")) {
+			try {
+				int port = SearchServer.PORT;
+				if (myargs.hasValue("-port")) {
+					port = Integer.parseInt(myargs.getValue("-port"));
+				}
+				int workers = WorkQueue.DEFAULT;
+				if (myargs.hasValue("-workers")) {
+					workers = Integer.parseInt(myargs.getValue("-workers"));
+				}
+				InetAddress address = myargs.hasFlag("-public") ? null
+						: InetAddress.getLoopbackAddress();
+				SearchServer server = new SearchServer(searchable, address,
+						port, workers);
+				System.out.println("Serving searches on port " + server.getPort());
+			} catch (NumberFormatException e) {
+				System.err.println("Unacceptable " + e);
+			} catch (IOException e) {
+				System.err.println("Unable to start server " + e);
+			}
+		}
+
+		if (myargs.hasFlag("-metrics")) {
+			System.out.println(Metrics.GLOBAL);
+		}
+
+		if (myargs.hasFlag("-f") && myargs.hasValue("-d")) {
+			follow(myargs, inv, parser, searchable, output, queryoutput);
+		} else if (sharded != null && !myargs.hasFlag("-port")) {
+			sharded.shutdown();
+		}
+	}
+
+	/**
+	 * Keeps running after everything else is done, updating the InvertedIndex
+	 * whenever files in the -d directory change. After every batch of changes
+	 * the index output is written again and the queries are searched again,
+	 * if they were requested. The -f flag may give the milliseconds to wait
+	 * for changes to settle.
+	 * 
+	 * @param myargs
+	 * @param inv
+	 * @param parser
+	 * @param searchable
+	 *            - where the queries are searched
+	 * @param output
+	 *            - index output, or null
+	 * @param queryoutput
+	 *            - search results output, or null
+	 */
+	private static void follow(final ArgumentParser myargs,
+			final InvertedIndex inv, final QueryParser parser,
+			final Searchable searchable, final Path output,
+			final Path queryoutput) {
+		long quiet = DirectoryWatcher.QUIET;
+		if (myargs.hasValue("-f")) {
+			try {
+				quiet = Long.parseLong(myargs.getValue("-f"));
+			} catch (NumberFormatException e) {
+				System.err.println("Unacceptable " + e);
+			}
+		}
+
+		try {
+			DirectoryWatcher watcher = new DirectoryWatcher(inv,
+					Paths.get(myargs.getValue("-d")), quiet) {
+				@Override
+				protected void updated(int changed, int deleted) {
+					System.out.println("Changed: " + changed + ", deleted: "
+							+ deleted);
+					if (output != null) {
+						inv.outputInvertedIndex(output);
+					}
+					if (myargs.hasValue("-q")) {
+						parser.queryParser(Paths.get(myargs.getValue("-q")),
+								searchable);
+						if (queryoutput != null) {
+							parser.write(queryoutput.toString());
+						}
+					}
+				}
+			};
+			System.out.println("Watching " + myargs.getValue("-d"));
+			watcher.watch();
+		} catch (IOException e) {
+			System.err.println("Unable to watch directory " + e);
+		}
 	}
 }
\ No newline at end of file
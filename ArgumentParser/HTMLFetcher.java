@@ -9,8 +9,6 @@ import java.net.MalformedURLException;
  * @see HeaderFetcher
  */
 public class HTMLFetcher extends HTTPFetcher {
-	/** Used to determine if headers have been read. */
-	private boolean head;
 
 	/**
 	 * Initializes this fetcher. Must call {@link #fetch()} to actually start
@@ -23,48 +21,34 @@ public class HTMLFetcher extends HTTPFetcher {
 	 */
 	public HTMLFetcher(String url) throws MalformedURLException {
 		super(url);
-		head = true;
 	}
 
 	/**
-	 * Crafts the HTTP GET request from the URL.
+	 * Crafts the HTTP GET request from the URL, asking the server to keep the
+	 * connection open for the next request.
 	 * 
 	 * @return HTTP request
 	 */
 	@Override
 	protected String craftRequest() {
 		String host = this.getURL().getHost();
+		if (this.getURL().getPort() != -1) {
+			host += ":" + this.getURL().getPort();
+		}
 		String resource = this.getURL().getFile().isEmpty() ? "/" : this
 				.getURL().getFile();
 
 		StringBuffer output = new StringBuffer();
-		output.append("GET " + resource + " HTTP/1.1\n");
-		output.append("Host: " + host + "\n");
-		output.append("Connection: close\n");
+		output.append("GET " + resource + " HTTP/1.1\r\n");
+		output.append("Host: " + host + "\r\n");
+		output.append("Connection: keep-alive\r\n");
 		output.append("\r\n");
 
 		return output.toString();
 	}
 
-	/**
-	 * Will skip any headers returned by the web server, and then output each
-	 * line of HTML to the console.
-	 */
-	@Override
-	protected String processLine(String line) {
-		if (head) {
-			// Check if we hit the blank line separating headers and HTML
-			if (line.trim().isEmpty()) {
-				head = false;
-			}
-		} else {
-			System.out.println(line);
-		}
-		return line;
-	}
-
 	public static void main(String[] args) throws MalformedURLException {
-		new HTMLFetcher("http://www.cs.usfca.edu/~sjengle/archived.html")
-				.fetch();
+		System.out.println(new HTMLFetcher(
+				"http://www.cs.usfca.edu/~sjengle/archived.html").fetch());
 	}
 }
\ No newline at end of file
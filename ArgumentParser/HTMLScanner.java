@@ -0,0 +1,564 @@
+/**
+ * Reads html in a single pass, in as many pieces as it arrives in, and finds
+ * both the words of the page and the links of its anchor tags. Nothing but
+ * the current word, tag or link is held while scanning, so a page never has
+ * to be held in memory as a whole.
+ *
+ * The words are the same as cleaning the whole page with
+ * {@link HTMLCleaner#cleanHTML(String)} and splitting it into words in html
+ * mode of {@link Tokenizer}, numbered from 1. Cleaning is done by a chain of
+ * stages that each remove what one of the regular expressions of
+ * {@link HTMLCleaner} would: script elements, style elements, tags and
+ * entities, in that order. The links are the same as
+ * {@link HTMLLinkParser#listLinks(String)} finds in the whole page.
+ *
+ * Script and style elements are held until their end tag is found, and are
+ * kept as text if it never is, like the regular expressions do.
+ *
+ * <pre>
+ * HTMLScanner scanner = new HTMLScanner() {
+ * 	protected void word(String word, int position) {
+ * 	}
+ *
+ * 	protected void link(String link) {
+ * 	}
+ * };
+ * scanner.append(html);
+ * scanner.finish();
+ * </pre>
+ *
+ * @author CaylaR
+ *
+ */
+public abstract class HTMLScanner implements Appendable {
+
+	private final Stage stages;
+	private final StringBuilder text;
+	private final Tokenizer tokenizer;
+	private final LinkMatcher links;
+	private int position;
+
+	public HTMLScanner() {
+		text = new StringBuilder();
+		stages = new ElementStage("script", new ElementStage("style",
+				new TagStage(new EntityStage(new TextStage()))));
+		tokenizer = new Tokenizer(true);
+		tokenizer.feed("");
+		links = new LinkMatcher();
+		position = 0;
+	}
+
+	/**
+	 * Called for every word of the page, in order.
+	 *
+	 * @param word
+	 *            - cleaned word
+	 * @param position
+	 *            - position of the word in the page, starting at 1
+	 */
+	protected abstract void word(String word, int position);
+
+	/**
+	 * Called for every link of the page, in order.
+	 *
+	 * @param link
+	 *            - link as written in the href attribute
+	 */
+	protected abstract void link(String link);
+
+	/**
+	 * Scans the next piece of the page.
+	 *
+	 * @param html
+	 * @return this scanner
+	 */
+	@Override
+	public HTMLScanner append(CharSequence html) {
+		return append(html, 0, html.length());
+	}
+
+	/**
+	 * Scans part of the next piece of the page.
+	 *
+	 * @param html
+	 * @param start
+	 * @param end
+	 * @return this scanner
+	 */
+	@Override
+	public HTMLScanner append(CharSequence html, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = html.charAt(i);
+			links.push(c);
+			stages.push(c);
+		}
+		words();
+		return this;
+	}
+
+	/**
+	 * Scans the next character of the page.
+	 *
+	 * @param c
+	 * @return this scanner
+	 */
+	@Override
+	public HTMLScanner append(char c) {
+		links.push(c);
+		stages.push(c);
+		words();
+		return this;
+	}
+
+	/**
+	 * Marks the end of the page, giving out whatever was still held back
+	 * waiting for more of it.
+	 */
+	public void finish() {
+		stages.end();
+		words();
+		tokenizer.end();
+		while (tokenizer.next()) {
+			word(tokenizer.token(), ++position);
+		}
+	}
+
+	/**
+	 * Returns the number of words given out so far, which is the position of
+	 * the last one.
+	 * 
+	 * @return number of words
+	 */
+	public int position() {
+		return position;
+	}
+
+	/**
+	 * Gives out the words in the text that made it through every stage.
+	 */
+	private void words() {
+		if (text.length() == 0) {
+			return;
+		}
+		tokenizer.feed(text);
+		while (tokenizer.next()) {
+			word(tokenizer.token(), ++position);
+		}
+		text.setLength(0);
+	}
+
+	/**
+	 * Tests for the characters matched by \s in a regular expression.
+	 *
+	 * @param c
+	 * @return true if the character is whitespace
+	 */
+	private static boolean whitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f'
+				|| c == '\r';
+	}
+
+	/**
+	 * Tests for the characters not matched by . in a regular expression
+	 * without the DOTALL flag.
+	 *
+	 * @param c
+	 * @return true if the character ends a line
+	 */
+	private static boolean lineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+				|| c == '\u2029';
+	}
+
+	/**
+	 * Compares characters ignoring case the way a regular expression with the
+	 * CASE_INSENSITIVE flag does, which only folds ASCII letters.
+	 *
+	 * @param c
+	 * @param lower
+	 *            - lowercase ASCII letter
+	 * @return true if c is the letter in either case
+	 */
+	private static boolean matches(char c, char lower) {
+		return (c | 0x20) == lower;
+	}
+
+	/**
+	 * One step of cleaning, removing what one regular expression matches and
+	 * passing everything else on to the next stage. Characters that might
+	 * start a match are held back until it is known whether they do.
+	 */
+	private abstract static class Stage {
+
+		protected final Stage next;
+		protected final StringBuilder held;
+
+		public Stage(Stage next) {
+			this.next = next;
+			this.held = new StringBuilder();
+		}
+
+		public abstract void push(char c);
+
+		/**
+		 * Passes on the characters held back, since there is no match left
+		 * for them to be part of.
+		 */
+		public void end() {
+			release();
+			next.end();
+		}
+
+		/**
+		 * Passes on the characters held back.
+		 */
+		protected void release() {
+			for (int i = 0; i < held.length(); i++) {
+				next.push(held.charAt(i));
+			}
+			held.setLength(0);
+		}
+	}
+
+	/**
+	 * Removes elements like {@link HTMLCleaner#stripElement(String, String)},
+	 * matching <code>(?is)&lt;name.+?name\s*&gt;</code>. The name must not
+	 * overlap itself, like script and style do not.
+	 */
+	private static class ElementStage extends Stage {
+
+		private static final int OUT = 0;
+		private static final int OPEN = 1;
+		private static final int FIRST = 2;
+		private static final int NAME = 3;
+		private static final int SPACE = 4;
+
+		private final String name;
+		private int state;
+		private int matched;
+
+		public ElementStage(String name, Stage next) {
+			super(next);
+			this.name = name;
+			this.state = OUT;
+		}
+
+		@Override
+		public void push(char c) {
+			switch (state) {
+			case OUT:
+				if (c == '<') {
+					held.append(c);
+					matched = 0;
+					state = OPEN;
+				} else {
+					next.push(c);
+				}
+				break;
+
+			case OPEN:
+				if (matches(c, name.charAt(matched))) {
+					held.append(c);
+					if (++matched == name.length()) {
+						state = FIRST;
+					}
+				} else {
+					release();
+					state = OUT;
+					push(c);
+				}
+				break;
+
+			case FIRST:
+				// .+? takes at least one character before the end tag
+				held.append(c);
+				matched = 0;
+				state = NAME;
+				break;
+
+			case NAME:
+				held.append(c);
+				if (matches(c, name.charAt(matched))) {
+					if (++matched == name.length()) {
+						state = SPACE;
+					}
+				} else {
+					matched = matches(c, name.charAt(0)) ? 1 : 0;
+				}
+				break;
+
+			case SPACE:
+				if (c == '>') {
+					held.setLength(0);
+					state = OUT;
+				} else if (whitespace(c)) {
+					held.append(c);
+				} else {
+					state = NAME;
+					matched = 0;
+					push(c);
+				}
+				break;
+			}
+		}
+
+		@Override
+		public void end() {
+			state = OUT;
+			super.end();
+		}
+	}
+
+	/**
+	 * Removes tags like {@link HTMLCleaner#stripTags(String)}, matching
+	 * <code>(?is)&lt;.+?\s*&gt;</code>: a &lt; and at least one character up
+	 * to the next &gt;.
+	 */
+	private static class TagStage extends Stage {
+
+		private static final int OUT = 0;
+		private static final int FIRST = 1;
+		private static final int INSIDE = 2;
+
+		private int state;
+
+		public TagStage(Stage next) {
+			super(next);
+			this.state = OUT;
+		}
+
+		@Override
+		public void push(char c) {
+			switch (state) {
+			case OUT:
+				if (c == '<') {
+					held.append(c);
+					state = FIRST;
+				} else {
+					next.push(c);
+				}
+				break;
+
+			case FIRST:
+				held.append(c);
+				state = INSIDE;
+				break;
+
+			case INSIDE:
+				if (c == '>') {
+					held.setLength(0);
+					state = OUT;
+				} else {
+					held.append(c);
+				}
+				break;
+			}
+		}
+
+		@Override
+		public void end() {
+			state = OUT;
+			super.end();
+		}
+	}
+
+	/**
+	 * Removes entities like {@link HTMLCleaner#stripEntities(String)},
+	 * matching <code>&amp;.+?;</code>: an &amp; and at least one character up
+	 * to the next semicolon, all on the same line.
+	 */
+	private static class EntityStage extends Stage {
+
+		private static final int OUT = 0;
+		private static final int FIRST = 1;
+		private static final int INSIDE = 2;
+
+		private int state;
+
+		public EntityStage(Stage next) {
+			super(next);
+			this.state = OUT;
+		}
+
+		@Override
+		public void push(char c) {
+			if (state != OUT && lineTerminator(c)) {
+				release();
+				state = OUT;
+			}
+
+			switch (state) {
+			case OUT:
+				if (c == '&') {
+					held.append(c);
+					state = FIRST;
+				} else {
+					next.push(c);
+				}
+				break;
+
+			case FIRST:
+				held.append(c);
+				state = INSIDE;
+				break;
+
+			case INSIDE:
+				if (c == ';') {
+					held.setLength(0);
+					state = OUT;
+				} else {
+					held.append(c);
+				}
+				break;
+			}
+		}
+
+		@Override
+		public void end() {
+			state = OUT;
+			super.end();
+		}
+	}
+
+	/**
+	 * Collects the cleaned text for the tokenizer.
+	 */
+	private class TextStage extends Stage {
+
+		public TextStage() {
+			super(null);
+		}
+
+		@Override
+		public void push(char c) {
+			text.append(c);
+		}
+
+		@Override
+		public void end() {
+		}
+	}
+
+	/**
+	 * Finds links like {@link HTMLLinkParser#REGEX}, matching
+	 * <code>(?i)&lt;a[^&gt;]*?\s*href\s*=\s*"(.*?)\s*"</code>. Within an
+	 * anchor tag, every href up to the first &gt; is tried in turn until one
+	 * is followed by a quoted link on a single line. The link ends at the
+	 * first quote, without the whitespace before it.
+	 */
+	private class LinkMatcher {
+
+		private static final int OUT = 0;
+		private static final int OPEN = 1;
+		private static final int TAG = 2;
+		private static final int EQUALS = 3;
+		private static final int QUOTE = 4;
+		private static final int VALUE = 5;
+
+		private static final String HREF = "href";
+
+		private int state;
+		private int matched;
+
+		/** Characters read since the current href, to try the next one. */
+		private final StringBuilder held;
+
+		/** The link so far and whether a line break has been seen in it. */
+		private final StringBuilder value;
+		private boolean broken;
+
+		public LinkMatcher() {
+			state = OUT;
+			held = new StringBuilder();
+			value = new StringBuilder();
+		}
+
+		public void push(char c) {
+			switch (state) {
+			case OUT:
+				if (c == '<') {
+					state = OPEN;
+				}
+				break;
+
+			case OPEN:
+				if (matches(c, 'a')) {
+					matched = 0;
+					state = TAG;
+				} else if (c != '<') {
+					state = OUT;
+				}
+				break;
+
+			case TAG:
+				if (c == '>') {
+					state = OUT;
+				} else if (matches(c, HREF.charAt(matched))) {
+					if (++matched == HREF.length()) {
+						held.setLength(0);
+						state = EQUALS;
+					}
+				} else {
+					matched = matches(c, HREF.charAt(0)) ? 1 : 0;
+				}
+				break;
+
+			case EQUALS:
+				held.append(c);
+				if (c == '=') {
+					state = QUOTE;
+				} else if (!whitespace(c)) {
+					retry();
+				}
+				break;
+
+			case QUOTE:
+				held.append(c);
+				if (c == '"') {
+					value.setLength(0);
+					broken = false;
+					state = VALUE;
+				} else if (!whitespace(c)) {
+					retry();
+				}
+				break;
+
+			case VALUE:
+				if (c == '"') {
+					int end = value.length();
+					while (end > 0 && whitespace(value.charAt(end - 1))) {
+						end--;
+					}
+					link(value.substring(0, end));
+					state = OUT;
+					break;
+				}
+
+				held.append(c);
+				if (whitespace(c)) {
+					broken |= c == '\n' || c == '\r';
+					value.append(c);
+				} else if (broken || lineTerminator(c)) {
+					retry();
+				} else {
+					value.append(c);
+				}
+				break;
+			}
+		}
+
+		/**
+		 * Goes back to looking for the next href in the tag after the current
+		 * one, reading again the characters read since the current one.
+		 */
+		private void retry() {
+			String again = held.toString();
+			held.setLength(0);
+			matched = 0;
+			state = TAG;
+			for (int i = 0; i < again.length(); i++) {
+				push(again.charAt(i));
+			}
+		}
+	}
+}
@@ -1,9 +1,13 @@
 import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
-import java.net.Socket;
+import java.net.SocketException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Locale;
 
 // TODO No longer makes sense to have two separate classes,
 // combine HTTPFetcher and HTMLFetcher
@@ -17,9 +21,17 @@ import java.net.URL;
  * @see HeaderFetcher
  */
 public abstract class HTTPFetcher {
-	/** Port used by socket. For web servers, should be port 80. */
+	/**
+	 * Port used by socket when the URL does not name one. For web servers,
+	 * should be port 80.
+	 */
 	private static final int PORT = 80;
 
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+	/** Connections shared by all fetchers. */
+	private static final ConnectionPool pool = new ConnectionPool();
+
 	/** The URL to fetch from a web server. */
 	private final URL url;
 
@@ -37,12 +49,13 @@ public abstract class HTTPFetcher {
 	}
 
 	/**
-	 * Returns the port being used to fetch URLs.
+	 * Returns the port being used to fetch URLs, which is the port of the URL
+	 * if it has one.
 	 * 
 	 * @return port number
 	 */
 	public int getPort() {
-		return PORT;
+		return url.getPort() == -1 ? PORT : url.getPort();
 	}
 
 	/**
@@ -76,41 +89,263 @@ public abstract class HTTPFetcher {
 	 * Will connect to the web server and fetch the URL using the HTTP request
 	 * from {@link #craftRequest()}, and then call {@link #processLine(String)}
 	 * on each of the returned lines.
+	 * 
+	 * @return the processed lines, joined together
 	 */
 	public String fetch() {
-		System.out.println("Server: " + url.getHost() + ":" + PORT);
-
 		StringBuffer buffer = new StringBuffer();
+		fetch(buffer);
+		return buffer.toString();
+	}
+
+	/**
+	 * Fetches the URL like {@link #fetch()}, but hands every processed line to
+	 * the output as soon as it has been read instead of keeping the whole page.
+	 * Connections come from a pool shared by all fetchers and are given back
+	 * for the next request to the same host unless the server closes them.
+	 * The body is read using its Content-Length or chunked transfer encoding,
+	 * or until the server closes the connection if it gives neither. A request
+	 * on a reused connection the server has already closed is sent again on a
+	 * new one. A server that does not answer within the pool's read timeout
+	 * fails the fetch like any other error, and its connection is closed
+	 * instead of given back.
+	 * 
+	 * @param output
+	 *            - where the processed lines are appended
+	 */
+	public void fetch(Appendable output) {
+		String request = craftRequest();
+
+		boolean retry = true;
+		while (true) {
+			ConnectionPool.Connection connection = null;
+			boolean received = false;
+			try {
+				connection = pool.acquire(url.getHost(), getPort());
+				connection.output().write(request.getBytes(LATIN1));
+				connection.output().flush();
+
+				Body body = read(connection.input());
+				received = true;
 
-		try (Socket socket = new Socket(url.getHost(), PORT);
 				BufferedReader reader = new BufferedReader(
-						new InputStreamReader(socket.getInputStream()));
-				PrintWriter writer = new PrintWriter(socket.getOutputStream());) {
-			String request = craftRequest();
-			System.out.println("HTTP: " + request);
-
-			writer.println(request);
-			writer.flush();
-
-			// TODO Including headers in the HTML
-			String line = null;
-			while ((line = reader.readLine()) != null) {
-				if (line.trim().isEmpty()) {
-					break;
+						new InputStreamReader(body));
+				String line = null;
+				while ((line = reader.readLine()) != null) {
+					line = processLine(line);
+					output.append(line);
 				}
+
+				if (body.keepAlive) {
+					pool.release(connection);
+				} else {
+					connection.close();
+				}
+				break;
+			} catch (Exception ex) {
+				if (connection != null) {
+					connection.close();
+					if (retry && !received && connection.isReused()
+							&& (ex instanceof EOFException
+									|| ex instanceof SocketException)) {
+						retry = false;
+						continue;
+					}
+				}
+				ex.printStackTrace();
+				break;
 			}
-			
-//			String line = reader.readLine();
-
-//			while (line != null) {
-			while ((line = reader.readLine()) != null) {
-				line = processLine(line);
-				buffer.append(line);
-//				line = reader.readLine();
+		}
+	}
+
+	/**
+	 * Returns the pool of connections shared by all fetchers.
+	 * 
+	 * @return connection pool
+	 */
+	public static ConnectionPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Reads the status and headers of a response, skipping any informational
+	 * responses before it.
+	 * 
+	 * @param input
+	 * @return body of the response, to be read to its end
+	 * @throws IOException
+	 *             if the connection fails or closes before the response
+	 */
+	private static Body read(InputStream input) throws IOException {
+		String status;
+		do {
+			status = readLine(input);
+			if (status == null) {
+				throw new EOFException("Connection closed before response");
+			}
+		} while (status.isEmpty());
+
+		String[] parts = status.split(" ", 3);
+		int code = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+		boolean keepAlive = status.startsWith("HTTP/1.1");
+		long length = -1;
+		boolean chunked = false;
+
+		String line;
+		while ((line = readLine(input)) != null && !line.isEmpty()) {
+			int colon = line.indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String name = line.substring(0, colon).trim();
+			String value = line.substring(colon + 1).trim()
+					.toLowerCase(Locale.ROOT);
+
+			if (name.equalsIgnoreCase("Content-Length")) {
+				length = Long.parseLong(value);
+			} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+				chunked = value.endsWith("chunked");
+			} else if (name.equalsIgnoreCase("Connection")) {
+				if (value.contains("close")) {
+					keepAlive = false;
+				} else if (value.contains("keep-alive")) {
+					keepAlive = true;
+				}
+			}
+		}
+
+		if (code >= 100 && code < 200) {
+			return read(input);
+		}
+
+		if (code == 204 || code == 304) {
+			return new Body(input, false, 0, keepAlive);
+		} else if (chunked) {
+			return new Body(input, true, 0, keepAlive);
+		} else if (length >= 0) {
+			return new Body(input, false, length, keepAlive);
+		} else {
+			return new Body(input, false, -1, false);
+		}
+	}
+
+	/**
+	 * Reads a line of a status or header ending in a line feed, without the
+	 * line ending.
+	 * 
+	 * @param input
+	 * @return line, or null if the stream ended first
+	 * @throws IOException
+	 */
+	private static String readLine(InputStream input) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = input.read()) != '\n') {
+			if (b < 0) {
+				return line.length() == 0 ? null : line.toString();
+			}
+			line.append((char) b);
+		}
+		int end = line.length();
+		if (end > 0 && line.charAt(end - 1) == '\r') {
+			line.setLength(end - 1);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Reads the body of a response from the connection, ending where the body
+	 * ends rather than where the connection does.
+	 */
+	private static class Body extends InputStream {
+
+		private final InputStream input;
+		private final boolean chunked;
+		private final boolean keepAlive;
+
+		/** Bytes left in the body or current chunk, or -1 if unknown. */
+		private long remaining;
+		private boolean done;
+
+		public Body(InputStream input, boolean chunked, long length,
+				boolean keepAlive) {
+			this.input = input;
+			this.chunked = chunked;
+			this.keepAlive = keepAlive;
+			this.remaining = length;
+			this.done = !chunked && length == 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length)
+				throws IOException {
+			if (done) {
+				return -1;
+			}
+			if (chunked && remaining == 0 && !nextChunk()) {
+				done = true;
+				return -1;
+			}
+
+			int count = remaining < 0 ? length : (int) Math.min(length,
+					remaining);
+			int read = input.read(bytes, offset, count);
+			if (read < 0) {
+				if (remaining < 0) {
+					done = true;
+					return -1;
+				}
+				throw new EOFException("Connection closed inside body");
+			}
+
+			if (remaining > 0) {
+				remaining -= read;
+				if (remaining == 0) {
+					if (chunked) {
+						readLine(input);
+					} else {
+						done = true;
+					}
+				}
+			}
+			return read;
+		}
+
+		/**
+		 * Starts reading the next chunk, skipping any trailing headers after
+		 * the last one.
+		 * 
+		 * @return false after the last chunk
+		 * @throws IOException
+		 */
+		private boolean nextChunk() throws IOException {
+			while (true) {
+				String line = readLine(input);
+				if (line == null) {
+					throw new EOFException("Connection closed inside chunk");
+				}
+				int extension = line.indexOf(';');
+				String size = (extension < 0 ? line : line.substring(0,
+						extension)).trim();
+				if (size.isEmpty()) {
+					continue;
+				}
+
+				remaining = Long.parseLong(size, 16);
+				if (remaining == 0) {
+					while ((line = readLine(input)) != null && !line.isEmpty()) {
+						// skip trailing headers
+					}
+					return false;
+				}
+				return true;
 			}
-		} catch (Exception ex) {
-			ex.printStackTrace();
 		}
-		return buffer.toString();
 	}
-}
\ No newline at end of file
+}
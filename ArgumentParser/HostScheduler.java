@@ -0,0 +1,286 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands work for web hosts to a {@link WorkQueue} without overloading any
+ * one host. Every host gets its own queue, and work for a host is only passed
+ * on while fewer than a given number of requests to it are running and at
+ * least a given delay has passed since the last one was passed on. Work that
+ * has to wait for the delay is passed on by a timer once it has passed.
+ *
+ * Since every host only has a few requests in the work queue at a time, the
+ * work queue takes turns between the hosts with work waiting, and a large site
+ * cannot hold up the others.
+ *
+ * @author CaylaR
+ *
+ */
+public class HostScheduler {
+
+	/** The default number of requests to one host at once. */
+	public static final int CONNECTIONS = 2;
+
+	/** The default time in milliseconds between requests to one host. */
+	public static final long DELAY = 100;
+
+	private final WorkQueue minions;
+	private final ScheduledExecutorService timer;
+	private final ConcurrentHashMap<String, Host> hosts;
+	private final int connections;
+	private final long delay;
+
+	/** Number of tasks added but not finished yet. */
+	private final AtomicInteger pending;
+
+	/** Number of tasks waiting for their host. */
+	private final AtomicInteger waiting;
+
+	/** Number of tasks running or waiting in the work queue. */
+	private final AtomicInteger active;
+
+	private final LongAdder dispatched;
+	private final LongAdder delayed;
+
+	/**
+	 * Starts a scheduler with the default limits.
+	 *
+	 * @param minions
+	 *            - work queue that runs the tasks
+	 */
+	public HostScheduler(WorkQueue minions) {
+		this(minions, CONNECTIONS, DELAY);
+	}
+
+	/**
+	 * Starts a scheduler.
+	 *
+	 * @param minions
+	 *            - work queue that runs the tasks
+	 * @param connections
+	 *            - number of tasks for one host running at once
+	 * @param delay
+	 *            - milliseconds between passing on two tasks for one host
+	 */
+	public HostScheduler(WorkQueue minions, int connections, long delay) {
+		this.minions = minions;
+		this.timer = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "HostScheduler");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.hosts = new ConcurrentHashMap<>();
+		this.connections = Math.max(connections, 1);
+		this.delay = TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+		this.pending = new AtomicInteger();
+		this.waiting = new AtomicInteger();
+		this.active = new AtomicInteger();
+		this.dispatched = new LongAdder();
+		this.delayed = new LongAdder();
+	}
+
+	/**
+	 * Adds a task for a host, which is passed on to the work queue once the
+	 * host allows it.
+	 *
+	 * @param name
+	 *            - host the task sends a request to
+	 * @param task
+	 */
+	public void execute(String name, Runnable task) {
+		Host host = hosts.get(name);
+		if (host == null) {
+			Host created = new Host();
+			host = hosts.putIfAbsent(name, created);
+			if (host == null) {
+				host = created;
+			}
+		}
+
+		pending.incrementAndGet();
+		waiting.incrementAndGet();
+		synchronized (host) {
+			host.tasks.offer(task);
+		}
+		dispatch(host);
+	}
+
+	/**
+	 * Waits until all of the tasks added so far have finished, including any
+	 * tasks added by those tasks while they were running.
+	 */
+	public void finish() {
+		synchronized (pending) {
+			try {
+				while (pending.get() > 0) {
+					pending.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Stops the timer. Tasks still waiting for their host are not run. The
+	 * work queue is left running.
+	 */
+	public void shutdown() {
+		timer.shutdownNow();
+	}
+
+	/**
+	 * Returns the number of tasks waiting for their host.
+	 *
+	 * @return number of tasks waiting
+	 */
+	public int waiting() {
+		return waiting.get();
+	}
+
+	/**
+	 * Returns the number of tasks waiting for a host.
+	 *
+	 * @param name
+	 * @return number of tasks waiting for the host
+	 */
+	public int waiting(String name) {
+		Host host = hosts.get(name);
+		if (host == null) {
+			return 0;
+		}
+		synchronized (host) {
+			return host.tasks.size();
+		}
+	}
+
+	/**
+	 * Returns the number of tasks passed on to the work queue and not
+	 * finished yet.
+	 *
+	 * @return number of tasks active
+	 */
+	public int active() {
+		return active.get();
+	}
+
+	/**
+	 * Returns the number of hosts seen.
+	 *
+	 * @return number of hosts
+	 */
+	public int hosts() {
+		return hosts.size();
+	}
+
+	@Override
+	public String toString() {
+		return "Hosts: " + hosts() + ", waiting: " + waiting() + ", active: "
+				+ active() + ", dispatched: " + dispatched.sum()
+				+ ", delayed: " + delayed.sum();
+	}
+
+	/**
+	 * Passes on the tasks the host allows to the work queue, and sets the
+	 * timer to try again if the next task has to wait for the delay.
+	 *
+	 * @param host
+	 */
+	private void dispatch(final Host host) {
+		List<Runnable> ready = new ArrayList<>();
+		synchronized (host) {
+			long now = System.nanoTime();
+			while (!host.tasks.isEmpty() && host.running < connections) {
+				if (now - host.next < 0) {
+					if (!host.timed) {
+						host.timed = true;
+						delayed.increment();
+						timer.schedule(new Runnable() {
+							@Override
+							public void run() {
+								synchronized (host) {
+									host.timed = false;
+								}
+								dispatch(host);
+							}
+						}, host.next - now, TimeUnit.NANOSECONDS);
+					}
+					break;
+				}
+
+				host.running++;
+				host.next = now + delay;
+				ready.add(new Task(host, host.tasks.poll()));
+			}
+		}
+
+		for (Runnable task : ready) {
+			waiting.decrementAndGet();
+			active.incrementAndGet();
+			dispatched.increment();
+			minions.execute(task);
+		}
+	}
+
+	/**
+	 * The tasks waiting for one host and the requests running to it.
+	 */
+	private static class Host {
+
+		private final ArrayDeque<Runnable> tasks;
+		private int running;
+		private long next;
+		private boolean timed;
+
+		public Host() {
+			this.tasks = new ArrayDeque<>();
+			this.running = 0;
+			this.next = System.nanoTime();
+			this.timed = false;
+		}
+	}
+
+	/**
+	 * Runs a task and lets its host pass on the next one.
+	 */
+	private class Task implements Runnable {
+
+		private final Host host;
+		private final Runnable task;
+
+		public Task(Host host, Runnable task) {
+			this.host = host;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} finally {
+				synchronized (host) {
+					host.running--;
+				}
+				active.decrementAndGet();
+				dispatch(host);
+
+				if (pending.decrementAndGet() == 0) {
+					synchronized (pending) {
+						pending.notifyAll();
+					}
+				}
+			}
+		}
+	}
+}
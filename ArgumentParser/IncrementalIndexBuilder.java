@@ -0,0 +1,421 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps an InvertedIndex of a directory saved as segment files, and brings it
+ * up to date by only parsing the files that are new or have changed since it
+ * was saved.
+ *
+ * The index is saved as a base segment and a few batch segments next to it,
+ * named after the base with a number appended. Every update writes only the
+ * files it parsed as a new batch, so saving costs as much as the files that
+ * changed. Once there are more than {@value #SEGMENTS} batches, or the
+ * segments hold more old copies of documents than live ones, the whole index
+ * is merged into the base segment again.
+ *
+ * Next to the segments a manifest is kept with the size, modification time,
+ * CRC32 checksum and segment of every file in the index. Only the documents
+ * the manifest points at are loaded from each segment, so the copies of
+ * changed and deleted files left in older segments are skipped. A file with
+ * the same size and modification time as in the manifest is not read at all.
+ * Otherwise its checksum is compared, so a file that was only touched is not
+ * parsed again. A file modified in the same instant the manifest was written
+ * might not show a new modification time yet, so such files are always
+ * checked. A segment that cannot be read makes the update parse every file
+ * again.
+ *
+ * @author CaylaR
+ *
+ */
+public class IncrementalIndexBuilder {
+
+	/** The number of batch segments kept before they are merged. */
+	public static final int SEGMENTS = 8;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final InvertedIndex index;
+	private final Path segment;
+	private final Path manifest;
+	private final int threads;
+
+	private int added;
+	private int modified;
+	private int removed;
+	private int unchanged;
+	private int dead;
+
+	/**
+	 * Starts a builder for the given segment file, parsing files on a single
+	 * thread.
+	 *
+	 * @param index
+	 *            - index to update, the saved segments are loaded into it
+	 * @param segment
+	 *            - base segment file the index is saved to
+	 */
+	public IncrementalIndexBuilder(InvertedIndex index, Path segment) {
+		this(index, segment, 0);
+	}
+
+	/**
+	 * Starts a builder for the given segment file.
+	 *
+	 * @param index
+	 *            - index to update, the saved segments are loaded into it
+	 * @param segment
+	 *            - base segment file the index is saved to
+	 * @param threads
+	 *            - number of threads parsing files, or 0 for none
+	 */
+	public IncrementalIndexBuilder(InvertedIndex index, Path segment,
+			int threads) {
+		this.index = index;
+		this.segment = segment;
+		this.manifest = segment.resolveSibling(segment.getFileName()
+				+ ".manifest");
+		this.threads = threads;
+	}
+
+	/**
+	 * Loads the saved segments, updates the index with the .txt files now in
+	 * the directory and saves the changed files and the manifest. Without a
+	 * saved manifest every file is parsed.
+	 *
+	 * @param directory
+	 */
+	public void update(Path directory) {
+		Map<String, Entry> previous = read();
+		long written = written();
+		int batch = 1;
+		for (Entry entry : previous.values()) {
+			batch = Math.max(batch, entry.segment + 1);
+		}
+		Map<String, Entry> current = new TreeMap<>();
+		List<Path> changed = new ArrayList<>();
+		added = modified = removed = unchanged = 0;
+
+		for (String file : DirectoryTraverser.traverse(directory)) {
+			Path path = Paths.get(file);
+			String document = path.toAbsolutePath().normalize().toString();
+			Entry old = previous.remove(document);
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(path,
+						BasicFileAttributes.class);
+				long size = attributes.size();
+				long time = attributes.lastModifiedTime().toMillis();
+
+				if (old != null && old.size == size && old.time == time
+						&& time < written) {
+					current.put(document, old);
+					unchanged++;
+					continue;
+				}
+
+				long checksum = checksum(path);
+				if (old != null && old.checksum == checksum) {
+					current.put(document, new Entry(size, time, checksum,
+							old.segment));
+					unchanged++;
+					continue;
+				}
+
+				current.put(document, new Entry(size, time, checksum, batch));
+				changed.add(path);
+				if (old == null) {
+					added++;
+				} else {
+					modified++;
+				}
+			} catch (IOException e) {
+				System.err.println("An error has occurred with your file!! "
+						+ file);
+				if (old != null) {
+					current.put(document, old);
+					unchanged++;
+				}
+			}
+		}
+		removed = previous.size();
+
+		boolean merge = false;
+		if (!load(current, batch)) {
+			merge = true;
+			changed.clear();
+			for (Map.Entry<String, Entry> entry : current.entrySet()) {
+				Entry old = entry.getValue();
+				entry.setValue(new Entry(old.size, old.time, old.checksum,
+						batch));
+				changed.add(Paths.get(entry.getKey()));
+			}
+		}
+
+		InvertedIndex parsed = new InvertedIndex();
+		if (threads > 0) {
+			MultithreadedInvertedIndexBuilder builder = new MultithreadedInvertedIndexBuilder(
+					parsed, threads);
+			builder.addFiles(changed);
+			builder.shutdown();
+		} else {
+			for (Path path : changed) {
+				IndexBuilder.parseFile(path, parsed);
+			}
+		}
+		index.addAll(parsed);
+
+		merge |= changed.size() == current.size()
+				|| segments(current).size() > SEGMENTS + 1
+				|| dead > current.size();
+		save(current, changed.isEmpty() ? null : parsed, batch, merge);
+	}
+
+	@Override
+	public String toString() {
+		return "Added: " + added + ", modified: " + modified + ", removed: "
+				+ removed + ", unchanged: " + unchanged;
+	}
+
+	/**
+	 * Reads the manifest saved with the segments. A manifest written before
+	 * batches were kept has no segment numbers, and all of its files are in
+	 * the base segment.
+	 *
+	 * @return manifest entries by document, empty if nothing was saved
+	 */
+	private Map<String, Entry> read() {
+		Map<String, Entry> entries = new HashMap<>();
+		if (!Files.isRegularFile(manifest)) {
+			return entries;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(manifest, UTF8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", 5);
+				if (fields.length == 5) {
+					entries.put(fields[4], new Entry(Long.parseLong(fields[0]),
+							Long.parseLong(fields[1]), Long.parseLong(fields[2],
+									16), Integer.parseInt(fields[3])));
+				} else if (fields.length == 4) {
+					entries.put(fields[3], new Entry(Long.parseLong(fields[0]),
+							Long.parseLong(fields[1]), Long.parseLong(fields[2],
+									16), 0));
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			System.err.println("Unable to read manifest " + e);
+			entries.clear();
+		}
+		return entries;
+	}
+
+	/**
+	 * Adds the documents the manifest points at from every saved segment to
+	 * the index. If a segment is missing or corrupt, the documents already
+	 * added are removed again.
+	 *
+	 * @param entries
+	 *            - manifest entries by document
+	 * @param batch
+	 *            - number of the batch not written yet
+	 * @return false if a segment could not be loaded
+	 */
+	private boolean load(Map<String, Entry> entries, int batch) {
+		Map<Integer, Set<String>> documents = new TreeMap<>();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			int number = entry.getValue().segment;
+			if (number == batch) {
+				continue;
+			}
+			Set<String> paths = documents.get(number);
+			if (paths == null) {
+				paths = new HashSet<>();
+				documents.put(number, paths);
+			}
+			paths.add(entry.getKey());
+		}
+
+		dead = 0;
+		List<String> loaded = new ArrayList<>();
+		try {
+			for (Map.Entry<Integer, Set<String>> entry : documents.entrySet()) {
+				IndexSegment saved = new IndexSegment(file(entry.getKey()));
+				loaded.addAll(entry.getValue());
+				dead += saved.documents()
+						- saved.addTo(index, entry.getValue());
+			}
+			return true;
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Unable to load segment, parsing every file "
+					+ e);
+			if (!loaded.isEmpty()) {
+				index.remove(loaded);
+			}
+			dead = 0;
+			return false;
+		}
+	}
+
+	/**
+	 * Returns when the manifest was last written.
+	 *
+	 * @return modification time in milliseconds, or 0 if there is none
+	 */
+	private long written() {
+		try {
+			return Files.getLastModifiedTime(manifest).toMillis();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes the parsed files as a new batch, or the whole index as the base
+	 * segment when merging, and then the manifest. Every file is written next
+	 * to the old one and then moved over it, so a failed update leaves the
+	 * old manifest and the segments it points at as they were. Segments the
+	 * new manifest no longer points at are deleted afterwards.
+	 *
+	 * @param entries
+	 *            - manifest entries by document
+	 * @param parsed
+	 *            - files parsed by this update, or null if there were none
+	 * @param batch
+	 *            - number of the new batch
+	 * @param merge
+	 *            - whether to merge every segment into the base
+	 */
+	private void save(Map<String, Entry> entries, InvertedIndex parsed,
+			int batch, boolean merge) {
+		Set<Integer> old = segments(read());
+		Path segmentTemp = segment.resolveSibling(segment.getFileName()
+				+ ".tmp");
+		Path manifestTemp = manifest.resolveSibling(manifest.getFileName()
+				+ ".tmp");
+		try {
+			if (merge) {
+				index.writeSegment(segmentTemp);
+				Files.move(segmentTemp, segment,
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					Entry value = entry.getValue();
+					entry.setValue(new Entry(value.size, value.time,
+							value.checksum, 0));
+				}
+			} else if (parsed != null) {
+				parsed.writeSegment(segmentTemp);
+				Files.move(segmentTemp, file(batch),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+
+			try (BufferedWriter writer = Files.newBufferedWriter(manifestTemp,
+					UTF8)) {
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					Entry value = entry.getValue();
+					writer.write(value.size + "\t" + value.time + "\t"
+							+ Long.toHexString(value.checksum) + "\t"
+							+ value.segment + "\t" + entry.getKey());
+					writer.newLine();
+				}
+			}
+			Files.move(manifestTemp, manifest,
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("No Segment Written " + e);
+			return;
+		}
+
+		old.removeAll(segments(entries));
+		for (int number : old) {
+			try {
+				Files.deleteIfExists(file(number));
+			} catch (IOException e) {
+				System.err.println("Unable to delete segment " + e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the numbers of the segments holding the given documents.
+	 *
+	 * @param entries
+	 *            - manifest entries by document
+	 * @return segment numbers
+	 */
+	private static Set<Integer> segments(Map<String, Entry> entries) {
+		Set<Integer> segments = new TreeSet<>();
+		for (Entry entry : entries.values()) {
+			segments.add(entry.segment);
+		}
+		return segments;
+	}
+
+	/**
+	 * Returns the file of a segment: the base segment for 0, and the base
+	 * segment's name with the number appended for a batch.
+	 *
+	 * @param number
+	 * @return segment file
+	 */
+	private Path file(int number) {
+		return number == 0 ? segment : segment.resolveSibling(segment
+				.getFileName() + "." + number);
+	}
+
+	/**
+	 * Computes the CRC32 checksum of a file's contents.
+	 *
+	 * @param path
+	 * @return checksum
+	 * @throws IOException
+	 */
+	private static long checksum(Path path) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		try (InputStream input = Files.newInputStream(path)) {
+			int read;
+			while ((read = input.read(buffer)) > 0) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * What the manifest remembers about a file.
+	 */
+	private static class Entry {
+
+		private final long size;
+		private final long time;
+		private final long checksum;
+		private final int segment;
+
+		public Entry(long size, long time, long checksum, int segment) {
+			this.size = size;
+			this.time = time;
+			this.checksum = checksum;
+			this.segment = segment;
+		}
+	}
+}
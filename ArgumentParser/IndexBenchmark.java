@@ -0,0 +1,308 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the hot paths of building and searching an index against a
+ * synthetic corpus: tokenizing text, parsing files, merging mini indexes,
+ * searching, and building and searching with a growing number of threads.
+ *
+ * The corpus is written to a temporary directory first so every run works on
+ * exactly the same files. Words are numbered, and the skew decides how often
+ * low numbered words are picked: a skew of 1 picks every word equally often,
+ * while higher values get closer to natural text where a few words make up
+ * most of it. Queries are prefixes of randomly picked words.
+ *
+ * Every benchmark is run a few times to warm up before it is measured, and
+ * the best and average of the measured rounds are reported.
+ *
+ * Usage: IndexBenchmark [-files 200] [-words 20000] [-vocabulary 20000]
+ * [-skew 2] [-queries 2000] [-threads cores] [-rounds 5]
+ *
+ * @author CaylaR
+ *
+ */
+public class IndexBenchmark {
+
+	private static final int WORDS_PER_LINE = 12;
+	private static final int WARMUP = 2;
+	private static final int LIMIT = 10;
+
+	private final int files;
+	private final int words;
+	private final int vocabulary;
+	private final double skew;
+	private final int queries;
+	private final int threads;
+	private final int rounds;
+
+	public IndexBenchmark(ArgumentParser args) {
+		files = integer(args, "-files", 200);
+		words = integer(args, "-words", 20000);
+		vocabulary = integer(args, "-vocabulary", 20000);
+		skew = args.hasValue("-skew") ? Double.parseDouble(args
+				.getValue("-skew")) : 2;
+		queries = integer(args, "-queries", 2000);
+		threads = integer(args, "-threads", Runtime.getRuntime()
+				.availableProcessors());
+		rounds = integer(args, "-rounds", 5);
+	}
+
+	public static void main(String[] args) throws IOException {
+		new IndexBenchmark(new ArgumentParser(args)).run();
+	}
+
+	/**
+	 * Generates the corpus and queries, runs every benchmark and removes the
+	 * corpus again.
+	 *
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		final Path corpus = Files.createTempDirectory("corpus");
+		final Path queryFile = Files.createTempFile("queries", ".txt");
+		final Path resultFile = Files.createTempFile("results", ".txt");
+		Random random = new Random(42);
+		generate(corpus, random);
+		final List<List<String>> queryList = queries(queryFile, random);
+
+		final long total = (long) files * words;
+		System.out.println("Corpus: " + files + " files, " + total
+				+ " words, " + vocabulary + " vocabulary, skew " + skew);
+
+		final List<String> lines = new ArrayList<>();
+		for (String file : DirectoryTraverser.traverse(corpus)) {
+			lines.addAll(Files.readAllLines(Paths.get(file),
+					Charset.forName("UTF-8")));
+		}
+		measure("WordParser.parseText", total, "words", new Runnable() {
+			@Override
+			public void run() {
+				for (String line : lines) {
+					WordParser.parseText(line);
+				}
+			}
+		});
+
+		measure("IndexBuilder.parseFile", total, "words", new Runnable() {
+			@Override
+			public void run() {
+				IndexBuilder.build(corpus, new InvertedIndex());
+			}
+		});
+
+		final List<InvertedIndex> minis = new ArrayList<>();
+		for (String file : DirectoryTraverser.traverse(corpus)) {
+			InvertedIndex mini = new InvertedIndex();
+			IndexBuilder.parseFile(Paths.get(file), mini);
+			minis.add(mini);
+		}
+		measure("InvertedIndex.addAll", total, "words", new Runnable() {
+			@Override
+			public void run() {
+				InvertedIndex index = new InvertedIndex();
+				for (InvertedIndex mini : minis) {
+					index.addAll(mini);
+				}
+			}
+		});
+
+		final InvertedIndex index = new InvertedIndex();
+		IndexBuilder.build(corpus, index);
+		measure("InvertedIndex.partialSearch", queries, "queries",
+				new Runnable() {
+					@Override
+					public void run() {
+						for (List<String> query : queryList) {
+							index.partialSearch(query);
+						}
+					}
+				});
+		measure("InvertedIndex.partialSearch top " + LIMIT, queries,
+				"queries", new Runnable() {
+					@Override
+					public void run() {
+						for (List<String> query : queryList) {
+							index.partialSearch(query, LIMIT);
+						}
+					}
+				});
+
+		for (int t = 1; t <= threads; t *= 2) {
+			final int count = t;
+			measure("MultithreadedInvertedIndexBuilder shared, threads " + t,
+					total, "words", new Runnable() {
+						@Override
+						public void run() {
+							MultithreadedInvertedIndexBuilder builder = new MultithreadedInvertedIndexBuilder(
+									new InvertedIndex(), count);
+							builder.addMainInvertedIndex(corpus);
+							builder.shutdown();
+						}
+					});
+			measure("MultithreadedInvertedIndexBuilder merge, threads " + t,
+					total, "words", new Runnable() {
+						@Override
+						public void run() {
+							MultithreadedInvertedIndexBuilder builder = new MultithreadedInvertedIndexBuilder(
+									new InvertedIndex(), count);
+							builder.mergeMainInvertedIndex(corpus);
+							builder.shutdown();
+						}
+					});
+			measure("InvertedIndex.outputInvertedIndex, threads " + t, total,
+					"words", new Runnable() {
+						@Override
+						public void run() {
+							index.outputInvertedIndex(resultFile, count);
+						}
+					});
+			measure("MultithreadedQueryParser, threads " + t, queries,
+					"queries", new Runnable() {
+						@Override
+						public void run() {
+							MultithreadedQueryParser parser = new MultithreadedQueryParser(
+									index, count);
+							parser.queryParser(queryFile, index);
+							parser.shutdown();
+						}
+					});
+			measure("MultithreadedQueryParser streaming, threads " + t,
+					queries, "queries", new Runnable() {
+						@Override
+						public void run() {
+							MultithreadedQueryParser parser = new MultithreadedQueryParser(
+									index, count);
+							parser.queryParser(queryFile, index, resultFile);
+							parser.shutdown();
+						}
+					});
+		}
+
+		delete(corpus);
+		Files.delete(queryFile);
+		Files.delete(resultFile);
+	}
+
+	/**
+	 * Runs a benchmark a few times to warm up and then measures it, printing
+	 * the best and average throughput.
+	 *
+	 * @param name
+	 *            - name of the benchmark
+	 * @param operations
+	 *            - number of operations done by one run
+	 * @param unit
+	 *            - name of an operation
+	 * @param benchmark
+	 */
+	private void measure(String name, long operations, String unit,
+			Runnable benchmark) {
+		for (int i = 0; i < WARMUP; i++) {
+			benchmark.run();
+		}
+
+		long best = Long.MAX_VALUE;
+		long sum = 0;
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			benchmark.run();
+			long elapsed = Math.max(System.nanoTime() - start, 1);
+			best = Math.min(best, elapsed);
+			sum += elapsed;
+		}
+
+		System.out.printf("%-55s best: %8.2f ms  avg: %8.2f ms  %s/sec: %d%n",
+				name, best / 1e6, sum / 1e6 / rounds, unit, operations
+						* 1000000000L / best);
+	}
+
+	/**
+	 * Picks a word number, favouring low numbers more as the skew grows.
+	 *
+	 * @param random
+	 * @return word
+	 */
+	private String word(Random random) {
+		return "w" + (int) (Math.pow(random.nextDouble(), skew) * vocabulary);
+	}
+
+	/**
+	 * Writes the corpus of text files made of random words.
+	 *
+	 * @param corpus
+	 * @param random
+	 * @throws IOException
+	 */
+	private void generate(Path corpus, Random random) throws IOException {
+		for (int f = 0; f < files; f++) {
+			Path file = corpus.resolve("file" + f + ".txt");
+			try (BufferedWriter writer = Files.newBufferedWriter(file,
+					Charset.forName("UTF-8"))) {
+				for (int w = 1; w <= words; w++) {
+					writer.write(word(random));
+					if (w % WORDS_PER_LINE == 0) {
+						writer.newLine();
+					} else {
+						writer.write(' ');
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the query file, one or two prefixes of random words per line.
+	 *
+	 * @param queryFile
+	 * @param random
+	 * @return the cleaned queries
+	 * @throws IOException
+	 */
+	private List<List<String>> queries(Path queryFile, Random random)
+			throws IOException {
+		List<List<String>> queryList = new ArrayList<>();
+		try (BufferedWriter writer = Files.newBufferedWriter(queryFile,
+				Charset.forName("UTF-8"))) {
+			for (int q = 0; q < queries; q++) {
+				StringBuilder line = new StringBuilder();
+				int count = 1 + random.nextInt(2);
+				for (int i = 0; i < count; i++) {
+					String word = word(random);
+					if (i > 0) {
+						line.append(' ');
+					}
+					line.append(word, 0, 2 + random.nextInt(word.length() - 1));
+				}
+				writer.write(line.toString());
+				writer.newLine();
+				queryList.add(WordParser.parseText(line.toString()));
+			}
+		}
+		return queryList;
+	}
+
+	private static int integer(ArgumentParser args, String flag, int value) {
+		return args.hasValue(flag) ? Integer.parseInt(args.getValue(flag))
+				: value;
+	}
+
+	/**
+	 * Removes the generated corpus.
+	 *
+	 * @param corpus
+	 * @throws IOException
+	 */
+	private static void delete(Path corpus) throws IOException {
+		for (String file : DirectoryTraverser.traverse(corpus)) {
+			Files.delete(Paths.get(file));
+		}
+		Files.delete(corpus);
+	}
+}
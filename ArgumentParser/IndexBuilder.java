@@ -4,6 +4,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -33,31 +34,59 @@ public class IndexBuilder {
 
 	/**
 	 * ParseFile takes in the string version of a filename and the InvertedIndex
-	 * and reads all of the information from that file
+	 * and reads all of the information from that file, using a
+	 * {@link Tokenizer} to find the words of each line. The index may be shared
+	 * with other threads parsing other files at the same time.
 	 * 
 	 * @see build
 	 * @param file
 	 * @param indexmap
 	 */
 	public static void parseFile(Path file, InvertedIndex indexmap) {
+		String document = file.toAbsolutePath().normalize().toString();
 		try (BufferedReader reader = Files.newBufferedReader(
 				Paths.get(file.toString()), Charset.forName("UTF-8"));) {
 			String line = null;
-			Integer position = 0;
+			int position = 0;
+			Tokenizer tokenizer = new Tokenizer();
 			while ((line = reader.readLine()) != null) {
-				String list = WordParser.cleanText(line);
-				String[] newtext = list.split("\\s");
-				for (String item : newtext) {
-					if (!item.isEmpty()) {
-						position++;
-						indexmap.add(item, file, position);
-					}
+				tokenizer.reset(line);
+				while (tokenizer.next()) {
+					position++;
+					indexmap.add(tokenizer.token(), document, position);
 				}
 			}
+			Metrics.GLOBAL.indexed(position);
 		} catch (IOException e) {
 			System.err
 					.println("An error has occurred with your file!! " + file);
 		}
 
 	}
+
+	/**
+	 * Reads every word of a file in order, found the same way as
+	 * {@link #parseFile(Path, InvertedIndex)} finds them, so they can be
+	 * handed to {@link InvertedIndex#replace(Path, List)}.
+	 * 
+	 * @param file
+	 * @return list of words
+	 * @throws IOException
+	 */
+	public static List<String> words(Path file) throws IOException {
+		List<String> words = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(file,
+				Charset.forName("UTF-8"));) {
+			String line = null;
+			Tokenizer tokenizer = new Tokenizer();
+			while ((line = reader.readLine()) != null) {
+				tokenizer.reset(line);
+				while (tokenizer.next()) {
+					words.add(tokenizer.token());
+				}
+			}
+		}
+		Metrics.GLOBAL.indexed(words.size());
+		return words;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,506 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * A read-only InvertedIndex stored in a binary file and memory-mapped when
+ * opened, so searches can be answered without building the index again and
+ * without reading all of it onto the heap.
+ *
+ * The file starts with a header holding the number of documents and words and
+ * where their indexes are stored. Documents are stored in path order, each as
+ * a length and UTF-8 bytes. Words are stored in sorted order, each as a length
+ * and UTF-8 bytes followed by its postings: the number of documents, then for
+ * every document the difference from the previous document id, the number of
+ * locations, the size in bytes of the locations and the locations themselves
+ * as zig-zag encoded differences. All numbers in the postings are variable
+ * length. The file ends with the positions of every document and every word.
+ *
+ * A segment must be smaller than 2GB so it fits in a single mapping.
+ *
+ * @author CaylaR
+ *
+ */
+public class IndexSegment implements Searchable {
+
+	private static final int MAGIC = 0x53494458;
+	private static final int VERSION = 1;
+	private static final int HEADER = 32;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MappedByteBuffer buffer;
+	private final int documents;
+	private final int terms;
+	private final int documentIndex;
+	private final int termIndex;
+
+	/**
+	 * Opens and memory-maps a segment written by
+	 * {@link InvertedIndex#outputSegment(Path)}.
+	 *
+	 * @param path
+	 *            - segment file
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a segment
+	 */
+	public IndexSegment(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Segment too large to map: " + path);
+			}
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC
+				|| buffer.getInt(4) != VERSION) {
+			throw new IOException("Not an index segment: " + path);
+		}
+		documents = buffer.getInt(8);
+		terms = buffer.getInt(12);
+		documentIndex = (int) buffer.getLong(16);
+		termIndex = (int) buffer.getLong(24);
+	}
+
+	/**
+	 * Returns the number of documents stored in the segment.
+	 *
+	 * @return number of documents
+	 */
+	public int documents() {
+		return documents;
+	}
+
+	/**
+	 * Returns the number of words stored in the segment.
+	 *
+	 * @return number of words
+	 */
+	public int terms() {
+		return terms;
+	}
+
+	/**
+	 * Finds the first word at or after each query and walks forward while the
+	 * words start with the query, adding up the results for every document.
+	 *
+	 * @param queries
+	 *            - list of queries from a file
+	 * @return list of searchresults
+	 */
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries) {
+		return collect(queries).results();
+	}
+
+	/**
+	 * Searches like {@link #partialSearch(List)}, but only keeps the best
+	 * results.
+	 *
+	 * @param queries
+	 *            - list of queries
+	 * @param limit
+	 *            - maximum number of results
+	 * @return list of at most limit searchresults
+	 */
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries, int limit) {
+		return collect(queries).results(limit);
+	}
+
+	/**
+	 * Returns the version of the segment, which never changes since segments
+	 * are read-only.
+	 *
+	 * @return version
+	 */
+	@Override
+	public long version() {
+		return 0;
+	}
+
+	/**
+	 * Adds up the frequency and first location of every document containing
+	 * a word that starts with one of the queries.
+	 *
+	 * @param queries
+	 * @return collected documents
+	 */
+	private ResultCollector collect(List<String> queries) {
+		ResultCollector collector = new ResultCollector(0) {
+			@Override
+			protected String path(int document) {
+				return string(documentPosition(document));
+			}
+		};
+
+		for (String query : queries) {
+			for (int t = lowerBound(query); t < terms; t++) {
+				int position = termPosition(t);
+				if (!string(position).startsWith(query)) {
+					break;
+				}
+
+				Cursor cursor = new Cursor(postings(position));
+				int count = cursor.next();
+				int document = 0;
+				for (int i = 0; i < count; i++) {
+					document += cursor.next();
+					int frequency = cursor.next();
+					int length = cursor.next();
+					int block = cursor.position;
+					int first = unzigzag(cursor.next());
+					cursor.position = block + length;
+
+					collector.add(document, frequency, first);
+				}
+			}
+		}
+		return collector;
+	}
+
+	/**
+	 * Writes the segment out in the same text format as
+	 * {@link InvertedIndex#outputInvertedIndex(Path)}.
+	 *
+	 * @param output
+	 */
+	public void outputInvertedIndex(Path output) {
+		try (BufferedWriter writer = Files.newBufferedWriter(output, UTF8)) {
+			for (int t = 0; t < terms; t++) {
+				int position = termPosition(t);
+				writer.write(string(position));
+				writer.newLine();
+
+				Cursor cursor = new Cursor(postings(position));
+				int count = cursor.next();
+				int document = 0;
+				for (int i = 0; i < count; i++) {
+					document += cursor.next();
+					int frequency = cursor.next();
+					cursor.next();
+
+					writer.write("\"" + string(documentPosition(document))
+							+ "\"");
+					int location = 0;
+					for (int k = 0; k < frequency; k++) {
+						location += unzigzag(cursor.next());
+						writer.write(", " + location);
+					}
+					writer.newLine();
+				}
+				writer.newLine();
+			}
+		} catch (IOException e) {
+			System.err.println("No File Written");
+		}
+	}
+
+	/**
+	 * Adds every location stored in the segment to an InvertedIndex, so that
+	 * an index saved earlier can be changed and saved again.
+	 *
+	 * @param index
+	 */
+	public void addTo(InvertedIndex index) {
+		addTo(index, null);
+	}
+
+	/**
+	 * Adds the locations of the given documents stored in the segment to an
+	 * InvertedIndex. Every document is looked up in the index once, and the
+	 * postings of every word are copied as a block, already in document order
+	 * and with locations stored as differences the way {@link PostingList}
+	 * keeps them.
+	 *
+	 * @param index
+	 * @param include
+	 *            - paths of the documents to add, or null for all of them
+	 * @return number of documents added
+	 */
+	public int addTo(InvertedIndex index, Set<String> include) {
+		int[] mapping = new int[documents];
+		int added = 0;
+		for (int d = 0; d < documents; d++) {
+			String path = string(documentPosition(d));
+			if (include == null || include.contains(path)) {
+				mapping[d] = index.document(path);
+				added++;
+			} else {
+				mapping[d] = -1;
+			}
+		}
+
+		int[] deltas = new int[16];
+		for (int t = 0; t < terms; t++) {
+			int position = termPosition(t);
+			PostingList list = new PostingList();
+
+			Cursor cursor = new Cursor(postings(position));
+			int count = cursor.next();
+			int document = 0;
+			for (int i = 0; i < count; i++) {
+				document += cursor.next();
+				int frequency = cursor.next();
+				int length = cursor.next();
+				if (frequency > length) {
+					throw new IndexOutOfBoundsException("Corrupt postings of "
+							+ string(position));
+				}
+				if (mapping[document] < 0) {
+					cursor.position += length;
+					continue;
+				}
+
+				if (frequency > deltas.length) {
+					deltas = new int[Math.max(frequency, deltas.length * 2)];
+				}
+				int location = 0;
+				for (int k = 0; k < frequency; k++) {
+					deltas[k] = unzigzag(cursor.next());
+					location += deltas[k];
+				}
+				list.append(document, deltas, frequency, location);
+			}
+			if (list.size() > 0) {
+				index.addAll(string(position), list, mapping);
+			}
+		}
+		index.modified();
+		return added;
+	}
+
+	/**
+	 * Writes a sorted map of words and their postings to a segment file.
+	 * Documents are renumbered in path order, so the postings of every word
+	 * are already in the order they are written out as text. Hidden documents
+	 * and words only they contained are left out. The segment is written next
+	 * to the output and then moved over it, so a segment that is open and
+	 * mapped while it is saved again keeps its old contents.
+	 *
+	 * @param indexmap
+	 *            - words and their postings
+	 * @param table
+	 *            - documents referenced by the postings
+	 * @param output
+	 *            - segment file
+	 * @throws IOException
+	 */
+	public static void write(SortedMap<String, PostingList> indexmap,
+			DocumentTable table, Path output) throws IOException {
+		int[] ranks = table.ranks();
+		int live = 0;
+		for (int rank : ranks) {
+			if (rank >= 0) {
+				live++;
+			}
+		}
+		String[] paths = new String[live];
+		for (int i = 0; i < ranks.length; i++) {
+			if (ranks[i] >= 0) {
+				paths[ranks[i]] = table.path(i);
+			}
+		}
+
+		Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel)));
+			out.write(new byte[HEADER]);
+
+			long[] documentPositions = new long[paths.length];
+			for (int i = 0; i < paths.length; i++) {
+				documentPositions[i] = out.size();
+				writeString(out, paths[i]);
+			}
+
+			ArrayList<Long> termPositions = new ArrayList<>();
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			for (Map.Entry<String, PostingList> entry : indexmap.entrySet()) {
+				PostingList list = entry.getValue();
+				synchronized (list) {
+					int[] order = list.order(ranks);
+					int start = InvertedIndex.live(list, order, ranks);
+					if (start == order.length) {
+						continue;
+					}
+
+					termPositions.add((long) out.size());
+					writeString(out, entry.getKey());
+					writeVarint(out, order.length - start);
+					int previous = 0;
+					for (int k = start; k < order.length; k++) {
+						int i = order[k];
+						int document = ranks[list.document(i)];
+						int[] positions = list.positions(i);
+						writeVarint(out, document - previous);
+						writeVarint(out, positions.length);
+						previous = document;
+
+						block.reset();
+						int location = 0;
+						for (int position : positions) {
+							writeVarint(block, zigzag(position - location));
+							location = position;
+						}
+						writeVarint(out, block.size());
+						block.writeTo(out);
+					}
+				}
+			}
+
+			long documentIndex = out.size();
+			for (long position : documentPositions) {
+				out.writeLong(position);
+			}
+			long termIndex = out.size();
+			for (long position : termPositions) {
+				out.writeLong(position);
+			}
+			out.flush();
+
+			if (out.size() == Integer.MAX_VALUE) {
+				throw new IOException("Segment too large: " + output);
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putInt(VERSION).putInt(paths.length)
+					.putInt(termPositions.size()).putLong(documentIndex)
+					.putLong(termIndex).flip();
+			channel.write(header, 0);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns the index of the first word that is not less than the query.
+	 *
+	 * @param query
+	 * @return index of a word, or the number of words if there is none
+	 */
+	private int lowerBound(String query) {
+		int low = 0;
+		int high = terms;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (string(termPosition(middle)).compareTo(query) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int termPosition(int term) {
+		return (int) buffer.getLong(termIndex + term * 8);
+	}
+
+	private int documentPosition(int document) {
+		return (int) buffer.getLong(documentIndex + document * 8);
+	}
+
+	/**
+	 * Returns where the postings of the word stored at the given position
+	 * start.
+	 *
+	 * @param position
+	 * @return position of the postings
+	 */
+	private int postings(int position) {
+		return position + 4 + buffer.getInt(position);
+	}
+
+	/**
+	 * Decodes the length-prefixed UTF-8 string stored at the given position.
+	 *
+	 * @param position
+	 * @return decoded string
+	 */
+	private String string(int position) {
+		int length = buffer.getInt(position);
+		if (length < 0 || length > buffer.capacity() - position - 4) {
+			throw new IndexOutOfBoundsException("Corrupt string at "
+					+ position);
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(position + 4 + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeString(DataOutputStream out, String string)
+			throws IOException {
+		byte[] bytes = string.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeVarint(OutputStream out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Reads variable length numbers from the mapped buffer. Every search uses
+	 * its own cursor so the shared buffer is only ever read by absolute
+	 * position.
+	 */
+	private class Cursor {
+
+		private int position;
+
+		public Cursor(int position) {
+			this.position = position;
+		}
+
+		public int next() {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get(position++);
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+	}
+}
@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Writes the words of an InvertedIndex in the text format of
+ * {@link InvertedIndex#outputInvertedIndex(Path)}, formatting ranges of words
+ * on several threads at once.
+ *
+ * The words are split into consecutive ranges of roughly the same size, and
+ * every range is formatted straight into UTF-8 bytes in a buffer of its own,
+ * without building a string for every line. The quoted path of every
+ * document is encoded once up front. Finished buffers are written to a
+ * {@link FileChannel} in word order, as many as are ready in a single
+ * gathering write. Only a few ranges per thread are formatted ahead of the
+ * one being written, so the whole output is never held in memory.
+ *
+ * Documents are ranked once when the writer is made. Words may still be
+ * added while it writes, but documents added after it was made have no rank
+ * and are left out like deleted ones.
+ *
+ * @author CaylaR
+ *
+ */
+public class IndexWriter {
+
+	/** Estimated bytes of output per range of words. */
+	private static final int RANGE = 1 << 18;
+
+	/** Ranges formatted ahead of the one being written, per thread. */
+	private static final int AHEAD = 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] NEWLINE = System.lineSeparator()
+			.getBytes(UTF8);
+	private static final byte[] COMMA = ", ".getBytes(UTF8);
+
+	private final SortedMap<String, PostingList> indexmap;
+	private final int[] ranks;
+	private final byte[][] quoted;
+
+	/**
+	 * Prepares to write the words of an index, ranking its documents and
+	 * encoding their quoted paths.
+	 *
+	 * @param indexmap
+	 *            - words and their postings
+	 * @param documents
+	 *            - documents referenced by the postings
+	 */
+	public IndexWriter(SortedMap<String, PostingList> indexmap,
+			DocumentTable documents) {
+		this.indexmap = indexmap;
+		this.ranks = documents.ranks();
+		this.quoted = new byte[ranks.length][];
+		for (int i = 0; i < ranks.length; i++) {
+			if (ranks[i] >= 0) {
+				quoted[i] = ("\"" + documents.path(i) + "\"").getBytes(UTF8);
+			}
+		}
+	}
+
+	/**
+	 * Writes the index to a file, formatting it on the given number of
+	 * threads. With a single thread everything is formatted by the calling
+	 * thread.
+	 *
+	 * @param output
+	 * @param threads
+	 *            - number of threads formatting ranges
+	 * @throws IOException
+	 */
+	public void write(Path output, int threads) throws IOException {
+		WorkQueue minions = threads > 1 ? new WorkQueue(threads) : null;
+		ArrayDeque<FutureTask<ByteBuffer>> ahead = new ArrayDeque<>();
+		int limit = Math.max(threads, 1) * AHEAD;
+
+		try (FileChannel channel = FileChannel.open(output,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			List<Map.Entry<String, PostingList>> range = new ArrayList<>();
+			long estimate = 0;
+			for (Map.Entry<String, PostingList> entry : indexmap.entrySet()) {
+				range.add(entry);
+				estimate += estimate(entry);
+				if (estimate >= RANGE) {
+					submit(new Formatter(range, estimate), minions, ahead);
+					range = new ArrayList<>();
+					estimate = 0;
+					if (ahead.size() >= limit) {
+						drain(channel, ahead, false);
+					}
+				}
+			}
+			if (!range.isEmpty()) {
+				submit(new Formatter(range, estimate), minions, ahead);
+			}
+			drain(channel, ahead, true);
+		} finally {
+			for (FutureTask<ByteBuffer> task : ahead) {
+				task.cancel(false);
+			}
+			if (minions != null) {
+				minions.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Writes the words of an index to a file, formatting them on the given
+	 * number of threads.
+	 *
+	 * @param indexmap
+	 *            - words and their postings
+	 * @param documents
+	 *            - documents referenced by the postings
+	 * @param output
+	 * @param threads
+	 * @throws IOException
+	 */
+	public static void write(SortedMap<String, PostingList> indexmap,
+			DocumentTable documents, Path output, int threads)
+			throws IOException {
+		new IndexWriter(indexmap, documents).write(output, threads);
+	}
+
+	/**
+	 * Estimates the bytes a word takes in the output from its number of
+	 * documents, without locking its postings for long.
+	 *
+	 * @param entry
+	 * @return estimated bytes
+	 */
+	private long estimate(Map.Entry<String, PostingList> entry) {
+		return entry.getKey().length() + 4 + entry.getValue().size() * 64L;
+	}
+
+	/**
+	 * Starts formatting a range, on the work queue if there is one or right
+	 * away otherwise.
+	 *
+	 * @param formatter
+	 * @param minions
+	 *            - work queue, or null
+	 * @param ahead
+	 *            - ranges not written yet, in order
+	 */
+	private static void submit(Formatter formatter, WorkQueue minions,
+			ArrayDeque<FutureTask<ByteBuffer>> ahead) {
+		FutureTask<ByteBuffer> task = new FutureTask<>(formatter);
+		ahead.add(task);
+		if (minions != null) {
+			minions.execute(task);
+		} else {
+			task.run();
+		}
+	}
+
+	/**
+	 * Writes the ranges at the front that are done in a single gathering
+	 * write, waiting for the first one. With all, keeps going until every
+	 * range has been written.
+	 *
+	 * @param channel
+	 * @param ahead
+	 *            - ranges not written yet, in order
+	 * @param all
+	 *            - whether to write every range
+	 * @throws IOException
+	 */
+	private static void drain(FileChannel channel,
+			ArrayDeque<FutureTask<ByteBuffer>> ahead, boolean all)
+			throws IOException {
+		while (!ahead.isEmpty()) {
+			List<ByteBuffer> ready = new ArrayList<>();
+			ready.add(result(ahead.poll()));
+			while (!ahead.isEmpty() && ahead.peek().isDone()) {
+				ready.add(result(ahead.poll()));
+			}
+
+			ByteBuffer[] buffers = ready.toArray(new ByteBuffer[ready.size()]);
+			long remaining = 0;
+			for (ByteBuffer buffer : buffers) {
+				remaining += buffer.remaining();
+			}
+			while (remaining > 0) {
+				remaining -= channel.write(buffers);
+			}
+			if (!all) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Waits for a range to be formatted.
+	 *
+	 * @param task
+	 * @return formatted range
+	 * @throws IOException
+	 *             if formatting failed or was interrupted
+	 */
+	private static ByteBuffer result(FutureTask<ByteBuffer> task)
+			throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to format index", e.getCause());
+		}
+	}
+
+	/**
+	 * Formats a range of words into UTF-8 bytes.
+	 */
+	private class Formatter implements Callable<ByteBuffer> {
+
+		private final List<Map.Entry<String, PostingList>> range;
+		private final int estimate;
+		private byte[] bytes;
+		private int size;
+
+		public Formatter(List<Map.Entry<String, PostingList>> range,
+				long estimate) {
+			this.range = range;
+			this.estimate = (int) Math.min(Math.max(estimate, 16), RANGE * 4L);
+		}
+
+		@Override
+		public ByteBuffer call() {
+			bytes = new byte[estimate];
+			size = 0;
+			for (Map.Entry<String, PostingList> entry : range) {
+				PostingList list = entry.getValue();
+				synchronized (list) {
+					int[] order = list.order(ranks);
+					int start = InvertedIndex.live(list, order, ranks);
+					if (start == order.length) {
+						continue;
+					}
+
+					append(entry.getKey().getBytes(UTF8));
+					append(NEWLINE);
+					for (int k = start; k < order.length; k++) {
+						int i = order[k];
+						append(quoted[list.document(i)]);
+						for (int location : list.positions(i)) {
+							append(COMMA);
+							append(location);
+						}
+						append(NEWLINE);
+					}
+				}
+				append(NEWLINE);
+			}
+			return ByteBuffer.wrap(bytes, 0, size);
+		}
+
+		private void append(byte[] more) {
+			ensure(more.length);
+			System.arraycopy(more, 0, bytes, size, more.length);
+			size += more.length;
+		}
+
+		/**
+		 * Appends the decimal digits of a number.
+		 *
+		 * @param value
+		 */
+		private void append(int value) {
+			if (value < 0) {
+				append(Integer.toString(value).getBytes(UTF8));
+				return;
+			}
+
+			int digits = 1;
+			for (int rest = value; rest >= 10; rest /= 10) {
+				digits++;
+			}
+			ensure(digits);
+			for (int i = size + digits - 1; i >= size; i--) {
+				bytes[i] = (byte) ('0' + value % 10);
+				value /= 10;
+			}
+			size += digits;
+		}
+
+		private void ensure(int more) {
+			if (size + more > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size
+						+ more));
+			}
+		}
+	}
+}
@@ -1,108 +1,362 @@
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class stores and writes information to a text file.
  * 
+ * Words are kept in a concurrent skip list and each word's postings are
+ * guarded by their own {@link PostingList} monitor, so many threads can add
+ * to the same index at once without sharing a single lock. Searches and
+ * output may run while words are being added and will see each word either
+ * before or after a concurrent update. Output leaves out documents added
+ * after it started.
+ * 
+ * Searches look up prefixes in a {@link PrefixDictionary} built from the
+ * words on the first search after the index changes. While the dictionary is
+ * out of date or being rebuilt, searches walk the skip list instead.
+ * 
+ * Deleting or replacing a document only hides its old document id, which
+ * searches and output skip. The postings of hidden documents are removed
+ * later in a single pass over the words, in the background once enough
+ * documents have been deleted or right away by {@link #compact()}.
+ * 
  * @author CaylaR
  * 
  */
 
-public class InvertedIndex {
+public class InvertedIndex implements Searchable {
+
+	/** Number of deleted documents that starts a compaction. */
+	public static final int COMPACTION = 64;
+
+	/** Runs the compactions of every index, one at a time. */
+	private static final ExecutorService compactor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Compactor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final ConcurrentSkipListMap<String, PostingList> indexmap;
+	private final DocumentTable documents;
 
-	private final TreeMap<String, TreeMap<String, ArrayList<Integer>>> indexmap;
-	private MultiReaderLock lock;
+	/** Hidden document ids whose postings have not been removed yet. */
+	private final ArrayList<Integer> tombstones;
+	private final AtomicBoolean compacting;
+
+	/**
+	 * The version shifted left by one, with the lowest bit set once the
+	 * version has been observed. Packing both into one word lets a change
+	 * clear the bit and move to a new version in a single compare-and-set.
+	 */
+	private final AtomicLong version;
+
+	private volatile PrefixDictionary dictionary;
+	private final AtomicBoolean building;
 
 	public InvertedIndex() {
-		indexmap = new TreeMap<>();
-		lock = new MultiReaderLock();
+		this(new DocumentTable());
+	}
+
+	/**
+	 * Starts an empty index that stores its documents in the given table,
+	 * which may be shared by several indexes holding different words, such as
+	 * the shards of a {@link ShardedInvertedIndex}.
+	 * 
+	 * @param documents
+	 */
+	public InvertedIndex(DocumentTable documents) {
+		indexmap = new ConcurrentSkipListMap<>();
+		this.documents = documents;
+		version = new AtomicLong();
+		dictionary = null;
+		building = new AtomicBoolean();
+		tombstones = new ArrayList<>();
+		compacting = new AtomicBoolean();
 	}
 
 	/**
 	 * Takes the main InvertedIndex and the mini thread InvertedIndex and adds
-	 * all of the minis to the main InvertedIndex. Uses the, MultiReaderLock
-	 * class, lock to keep all information protected.
+	 * all of the minis to the main InvertedIndex. The document ids of the mini
+	 * are translated to ids of the main InvertedIndex once, before any of the
+	 * postings are copied. Only the words being merged are locked, one at a
+	 * time. The mini must not be modified while it is being added.
 	 * 
 	 * @param mini
 	 */
 	public void addAll(InvertedIndex mini) {
-		lock.lockWrite();
-		for (String key : mini.indexmap.keySet()) {
-			if (this.indexmap.containsKey(key) == false) {
-				this.indexmap.put(key, mini.indexmap.get(key));
-			} else {
-				for (String path : mini.indexmap.get(key).keySet()) {
-					if (this.indexmap.get(key).containsKey(path) == false) {
-						this.indexmap.get(key).put(path,
-								mini.indexmap.get(key).get(path));
-					} else {
-						this.indexmap.get(key).get(path)
-								.addAll(mini.indexmap.get(key).get(path));
-					}
-				}
+		addAll(mini, 0, 1);
+	}
+
+	/**
+	 * Adds the words of the mini InvertedIndex that belong to one shard of a
+	 * {@link ShardedInvertedIndex}, like {@link #addAll(InvertedIndex)}.
+	 * 
+	 * @param mini
+	 * @param shard
+	 *            - shard the words are added to
+	 * @param shards
+	 *            - number of shards
+	 */
+	void addAll(InvertedIndex mini, int shard, int shards) {
+		long start = System.nanoTime();
+		int[] mapping = new int[mini.documents.size()];
+		for (int i = 0; i < mapping.length; i++) {
+			mapping[i] = documents.id(mini.documents.path(i));
+		}
+
+		for (Map.Entry<String, PostingList> entry : mini.indexmap.entrySet()) {
+			if (shards > 1
+					&& ShardedInvertedIndex.shard(entry.getKey(), shards) != shard) {
+				continue;
+			}
+			while (!postings(entry.getKey()).addAll(entry.getValue(), mapping)) {
+				// the list was emptied and taken out by a compaction
 			}
 		}
-		lock.unlockWrite();
+		modified();
+		Metrics.GLOBAL.merged(System.nanoTime() - start);
 	}
 
 	/**
-	 * Creates a TreeMap with all parameters see @param. Uses the,
-	 * MultiReaderLock class, lock to keep all information protected.
+	 * Returns the id of a document, assigning one if the path is new.
+	 * 
+	 * @param path
+	 *            - normalized absolute path of the document
+	 * @return document id
+	 */
+	int document(String path) {
+		return documents.id(path);
+	}
+
+	/**
+	 * Adds all of the locations of a word stored in a list, translating its
+	 * document ids with the given mapping. Like {@link #add(String, int, int)}
+	 * this does not move the index to a new version.
+	 * 
+	 * @param word
+	 * @param list
+	 *            - locations to copy, not shared with other threads
+	 * @param mapping
+	 *            - document id in this index, indexed by document id in list
+	 */
+	void addAll(String word, PostingList list, int[] mapping) {
+		while (!postings(word).addAll(list, mapping)) {
+			// the list was emptied and taken out by a compaction
+		}
+	}
+
+	/**
+	 * Adds a single location of a word found in a file.
 	 * 
 	 * @param word
 	 * @param path
 	 * @param location
 	 */
 	public void add(String word, Path path, Integer location) {
-
 		add(word, path.toAbsolutePath().normalize().toString(), location);
-		// TODO Call add(word, path.toString(), location)
-		
-//		lock.lockWrite();
-//		if (!indexmap.containsKey(word)) {
-//			indexmap.put(word, new TreeMap<String, ArrayList<Integer>>());
-//		}
-//
-//		if (!indexmap.get(word).containsKey(
-//				path.toAbsolutePath().normalize().toString())) {
-//			indexmap.get(word).put(
-//					path.toAbsolutePath().normalize().toString(),
-//					new ArrayList<Integer>());
-//		}
-//
-//		indexmap.get(word).get(path.toAbsolutePath().normalize().toString())
-//				.add(location);
-//		lock.unlockWrite();
-	}
-
-	// TODO Add this
+	}
+
+	/**
+	 * Adds a single location of a word, storing the path in the document
+	 * table. Only the postings of this word are locked.
+	 * 
+	 * @param word
+	 * @param path
+	 * @param location
+	 */
 	public void add(String word, String path, Integer location) {
-		lock.lockWrite();
-		if (!indexmap.containsKey(word)) {
-			indexmap.put(word, new TreeMap<String, ArrayList<Integer>>());
+		add(word, documents.id(path), location);
+		modified();
+	}
+
+	/**
+	 * Adds a single location of a word to the postings of a document id,
+	 * trying again if a compaction takes the postings out of the index first.
+	 * 
+	 * @param word
+	 * @param document
+	 * @param location
+	 */
+	void add(String word, int document, int location) {
+		while (!postings(word).add(document, location)) {
+			// the list was emptied and taken out by a compaction
 		}
+	}
 
-		if (!indexmap.get(word).containsKey(path)) {
-			indexmap.get(word).put(path,
-					new ArrayList<Integer>());
+	/**
+	 * Deletes a document from the index. Its postings are skipped right away
+	 * and removed by the next compaction. Adding the document again starts a
+	 * new document.
+	 * 
+	 * @param path
+	 *            - normalized absolute path of the document
+	 * @return true if the document was in the index
+	 */
+	public boolean delete(String path) {
+		int id = documents.retire(path);
+		if (id < 0) {
+			return false;
 		}
+		deleted(id);
+		return true;
+	}
 
-		indexmap.get(word).get(path)
-				.add(location);
-		lock.unlockWrite();
+	/**
+	 * Removes the postings of a document id hidden in the document table,
+	 * which may have been hidden by another index sharing the table.
+	 * 
+	 * @param id
+	 */
+	void deleted(int id) {
+		tombstone(id);
+		modified();
+	}
+
+	/**
+	 * Deletes a file from the index.
+	 * 
+	 * @see #delete(String)
+	 * @param path
+	 * @return true if the file was in the index
+	 */
+	public boolean delete(Path path) {
+		return delete(path.toAbsolutePath().normalize().toString());
+	}
+
+	/**
+	 * Replaces the words of a document, numbering them from 1 like
+	 * {@link #storeInfo(List, Path)}. The new words are added under a new
+	 * document id that replaces the old one only once all of them have been
+	 * added, so searches see either the old or the new document and never
+	 * part of it.
+	 * 
+	 * @param path
+	 *            - normalized absolute path of the document
+	 * @param words
+	 *            - every word of the document, in order
+	 */
+	public void replace(String path, List<String> words) {
+		int id = documents.reserve(path);
+		for (int i = 0; i < words.size(); i++) {
+			add(words.get(i), id, i + 1);
+		}
+		int old = documents.publish(path, id);
+		if (old >= 0) {
+			tombstone(old);
+		}
+		modified();
+	}
+
+	/**
+	 * Replaces the words of a file.
+	 * 
+	 * @see #replace(String, List)
+	 * @param path
+	 * @param words
+	 */
+	public void replace(Path path, List<String> words) {
+		replace(path.toAbsolutePath().normalize().toString(), words);
 	}
 	
 	/**
-	 * Adds all of the WordParser words list to a new TreeMap. Uses the,
-	 * MultiReaderLock class, lock to keep all information protected.
+	 * Deletes the given documents and removes their postings right away.
+	 * 
+	 * @param paths
+	 *            - normalized absolute paths of the documents
+	 * @return number of documents that were in the index
+	 */
+	public int remove(Collection<String> paths) {
+		int count = 0;
+		for (String path : paths) {
+			if (delete(path)) {
+				count++;
+			}
+		}
+		compact();
+		return count;
+	}
+
+	/**
+	 * Removes the postings of every deleted or replaced document in a single
+	 * pass over the words, taking out the words no document is left with.
+	 * Locations may be added while the index is compacted.
+	 * 
+	 * @return number of words taken out
+	 */
+	public int compact() {
+		int[] ids;
+		synchronized (tombstones) {
+			if (tombstones.isEmpty()) {
+				return 0;
+			}
+			ids = new int[tombstones.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = tombstones.get(i);
+			}
+			tombstones.clear();
+		}
+		Arrays.sort(ids);
+
+		int removed = 0;
+		for (Map.Entry<String, PostingList> entry : indexmap.entrySet()) {
+			PostingList list = entry.getValue();
+			synchronized (list) {
+				if (list.remove(ids) > 0 && list.size() == 0) {
+					indexmap.remove(entry.getKey(), list);
+					list.retire();
+					removed++;
+				}
+			}
+		}
+		modified();
+		return removed;
+	}
+
+	/**
+	 * Remembers a hidden document id for the next compaction, and starts one
+	 * in the background once enough of them have piled up.
+	 * 
+	 * @param id
+	 */
+	private void tombstone(int id) {
+		boolean full;
+		synchronized (tombstones) {
+			tombstones.add(id);
+			full = tombstones.size() >= COMPACTION;
+		}
+
+		if (full && compacting.compareAndSet(false, true)) {
+			compactor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						compact();
+					} finally {
+						compacting.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Adds all of the WordParser words list to the index.
 	 * 
 	 * @param listofwords
 	 * @param filename
@@ -115,83 +369,293 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Writes all of the information from the TreeMap and writes it to an output
-	 * file. Uses the, MultiReaderLock class, lock to keep all information
-	 * protected.
+	 * Writes all of the information from the index and writes it to an output
+	 * file. The documents of each word are written in path order, skipping
+	 * deleted documents and any word only they contained. Uses a thread per
+	 * processor to format the output.
 	 * 
 	 * @param output
 	 */
 	public void outputInvertedIndex(Path output) {
+		outputInvertedIndex(output, Runtime.getRuntime().availableProcessors());
+	}
 
-		lock.lockRead();
-		try (BufferedWriter writer = Files.newBufferedWriter(output,
-				Charset.forName("UTF-8"))) {
-			for (String word : indexmap.keySet()) {
-				writer.write(word.toString());
-				writer.newLine();
-
-				for (String path : indexmap.get(word).keySet()) {
-					writer.write("\"" + path.toString() + "\"");
-					for (Integer location : indexmap.get(word).get(path)) {
-						writer.write(", " + location.toString());
-					}
-					writer.newLine();
-				}
-				writer.newLine();
-			}
+	/**
+	 * Writes the index to an output file like
+	 * {@link #outputInvertedIndex(Path)}, formatting ranges of words on the
+	 * given number of threads with an {@link IndexWriter}.
+	 * 
+	 * @param output
+	 * @param threads
+	 */
+	public void outputInvertedIndex(Path output, int threads) {
+		try {
+			IndexWriter.write(indexmap, documents, output, threads);
 		} catch (IOException e) {
 			System.err.println("No File Written");
 		}
-		lock.unlockRead();
+	}
+
+	/**
+	 * Writes the index to a binary segment file that can later be opened with
+	 * {@link IndexSegment} instead of building the index again.
+	 * 
+	 * @param output
+	 */
+	public void outputSegment(Path output) {
+		try {
+			writeSegment(output);
+		} catch (IOException e) {
+			System.err.println("No Segment Written");
+		}
+	}
+
+	/**
+	 * Returns where the documents in use start in an order of a list, since
+	 * hidden documents and documents added after the ranks were taken are
+	 * ranked before all others. Must be called while holding the lock of the
+	 * list.
+	 * 
+	 * @param list
+	 * @param order
+	 *            - order of the list from {@link PostingList#order(int[])}
+	 * @param ranks
+	 *            - ranks from {@link DocumentTable#ranks()}
+	 * @return index of the first document in use, or the length of the order
+	 */
+	static int live(PostingList list, int[] order, int[] ranks) {
+		int start = 0;
+		while (start < order.length) {
+			int document = list.document(order[start]);
+			if (document < ranks.length && ranks[document] >= 0) {
+				break;
+			}
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * Returns the words of the index and their postings. Must not be
+	 * modified.
+	 * 
+	 * @return sorted words and their postings
+	 */
+	SortedMap<String, PostingList> words() {
+		return indexmap;
+	}
+
+	/**
+	 * Writes the index to a binary segment file like
+	 * {@link #outputSegment(Path)}, but lets the caller handle any error.
+	 * 
+	 * @param output
+	 * @throws IOException
+	 */
+	public void writeSegment(Path output) throws IOException {
+		IndexSegment.write(indexmap, documents, output);
 	}
 
 	/**
 	 * 
-	 * Walks through all the keys of a TreeMap and searches for queries. Uses
-	 * the, MultiReaderLock class, lock to keep all information protected.
+	 * Walks through all the words starting with each query and adds up the
+	 * results for every document they were found in.
 	 * 
 	 * @param queries
 	 *            - list of queries from a file
 	 * @return list of searchresults
 	 */
+	@Override
 	public List<SearchResult> partialSearch(List<String> queries) {
+		return collect(queries).results();
+	}
 
-		lock.lockRead();
-
-		HashMap<String, SearchResult> map = new HashMap<>();
-
-		int frequency;
-		int position;
+	/**
+	 * Walks through all the words starting with each query like
+	 * {@link #partialSearch(List)}, but only keeps the best results.
+	 * 
+	 * @param queries
+	 *            - list of queries
+	 * @param limit
+	 *            - maximum number of results
+	 * @return list of at most limit searchresults
+	 */
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries, int limit) {
+		return collect(queries).results(limit);
+	}
 
-		for (String query : queries) {
-			for (String word : indexmap.tailMap(query).keySet()) {
-				if (word.startsWith(query)) {
-					for (String path : indexmap.get(word).keySet()) {
-						if (map.containsKey(path)) {
+	/**
+	 * Adds up the frequency and first location of every document containing
+	 * a word that starts with one of the queries.
+	 * 
+	 * @param queries
+	 * @return collected documents
+	 */
+	private ResultCollector collect(List<String> queries) {
+		PrefixDictionary dictionary = dictionary();
+		long expected = 0;
+		if (dictionary != null) {
+			for (String query : queries) {
+				expected += dictionary.documents(query);
+			}
+		}
 
-							SearchResult result = map.get(path);
-							frequency = indexmap.get(word).get(path).size();
-							position = indexmap.get(word).get(path).get(0);
-							result.update(frequency, position);
-						} else {
+		ResultCollector collector = collector((int) Math.min(expected,
+				documents.size()));
+		collect(queries, dictionary, collector);
+		return collector;
+	}
 
-							frequency = indexmap.get(word).get(path).size();
-							position = indexmap.get(word).get(path).get(0);
-							SearchResult result = new SearchResult(frequency,
-									position, path);
-							map.put(path, result);
-						}
+	/**
+	 * Adds up the frequency and first location of every document containing
+	 * a word that starts with one of the queries to a collector, which may
+	 * already hold the documents found by another index sharing the same
+	 * document table.
+	 * 
+	 * @param queries
+	 * @param collector
+	 */
+	void collect(List<String> queries, ResultCollector collector) {
+		collect(queries, dictionary(), collector);
+	}
 
+	/**
+	 * Walks the words starting with each query in the dictionary, or in the
+	 * skip list if there is no up to date dictionary.
+	 * 
+	 * @param queries
+	 * @param dictionary
+	 *            - up to date dictionary, or null
+	 * @param collector
+	 */
+	private void collect(List<String> queries, PrefixDictionary dictionary,
+			ResultCollector collector) {
+		if (dictionary != null) {
+			for (String query : queries) {
+				for (PostingList list : dictionary.postings(query)) {
+					collect(list, collector);
+				}
+			}
+		} else {
+			for (String query : queries) {
+				for (Map.Entry<String, PostingList> entry : indexmap
+						.tailMap(query).entrySet()) {
+					if (!entry.getKey().startsWith(query)) {
+						break;
 					}
-				} else {
-					break;
+					collect(entry.getValue(), collector);
 				}
 			}
 		}
-		lock.unlockRead();
-		List<SearchResult> searchResults = new ArrayList<>();
-		searchResults.addAll(map.values());
-		Collections.sort(searchResults);
-		return searchResults;
+	}
+
+	/**
+	 * Adds the frequency and first location of every document in the list to
+	 * the collector, skipping deleted documents.
+	 * 
+	 * @param list
+	 * @param collector
+	 */
+	private void collect(PostingList list, ResultCollector collector) {
+		synchronized (list) {
+			for (int i = 0; i < list.size(); i++) {
+				int document = list.document(i);
+				if (documents.live(document)) {
+					collector.add(document, list.count(i), list.first(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a collector that looks up paths in the document table.
+	 * 
+	 * @param expected
+	 *            - number of documents expected
+	 * @return empty collector
+	 */
+	private ResultCollector collector(int expected) {
+		return new ResultCollector(expected) {
+			@Override
+			protected String path(int document) {
+				return documents.path(document);
+			}
+		};
+	}
+
+	/**
+	 * Returns a dictionary matching the current words, building a new one if
+	 * the index has changed since the last one was built. Returns null if
+	 * another thread is already rebuilding it.
+	 * 
+	 * @return up to date dictionary, or null
+	 */
+	private PrefixDictionary dictionary() {
+		PrefixDictionary current = dictionary;
+		if (current != null && current.version() == (version.get() >>> 1)) {
+			return current;
+		}
+
+		if (!building.compareAndSet(false, true)) {
+			return null;
+		}
+		try {
+			current = new PrefixDictionary(indexmap, version());
+			dictionary = current;
+			return current;
+		} finally {
+			building.set(false);
+		}
+	}
+
+	/**
+	 * Returns the current version of the index. Any change made after this
+	 * call moves the index to a new version, so a result computed after
+	 * reading the version is up to date for as long as the version stays the
+	 * same.
+	 * 
+	 * @return current version
+	 */
+	@Override
+	public long version() {
+		while (true) {
+			long state = version.get();
+			if ((state & 1) != 0 || version.compareAndSet(state, state | 1)) {
+				return state >>> 1;
+			}
+		}
+	}
+
+	/**
+	 * Moves the index to a new version if the current one has been observed.
+	 * Until the next call to {@link #version()} further changes only cost a
+	 * volatile read.
+	 */
+	void modified() {
+		long state = version.get();
+		while ((state & 1) != 0
+				&& !version.compareAndSet(state, ((state >>> 1) + 1) << 1)) {
+			state = version.get();
+		}
+	}
+
+	/**
+	 * Returns the postings of a word, creating them if this is the first time
+	 * the word has been added.
+	 * 
+	 * @param word
+	 * @return postings of the word
+	 */
+	private PostingList postings(String word) {
+		PostingList list = indexmap.get(word);
+		if (list == null) {
+			PostingList created = new PostingList();
+			list = indexmap.putIfAbsent(word, created);
+			if (list == null) {
+				list = created;
+			}
+		}
+		return list;
 	}
 }
\ No newline at end of file
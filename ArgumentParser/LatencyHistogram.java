@@ -0,0 +1,152 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long requests take in buckets of microseconds, so percentiles
+ * can be reported without keeping every latency. Every power of two is split
+ * into 8 buckets, so a percentile is never more than an eighth above the real
+ * latency. Recording only increments counters and never locks, so it can be
+ * shared by every thread answering requests. Every bucket is a
+ * {@link LongAdder}, which spreads increments over several cells when threads
+ * collide on the same bucket.
+ *
+ * @author CaylaR
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB = 8;
+	private static final int SHIFT = 3;
+	private static final int BUCKETS = (64 - SHIFT + 1) * SUB;
+
+	private final LongAdder[] buckets;
+	private final LongAdder count;
+	private final LongAdder total;
+	private final AtomicLong max;
+
+	public LatencyHistogram() {
+		buckets = new LongAdder[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+		count = new LongAdder();
+		total = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records the latency of one request.
+	 *
+	 * @param nanos
+	 *            - time the request took in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0);
+		buckets[bucket(micros)].increment();
+		count.increment();
+		total.add(micros);
+
+		long current = max.get();
+		while (micros > current && !max.compareAndSet(current, micros)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of requests recorded.
+	 *
+	 * @return number of requests
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the average latency.
+	 *
+	 * @return mean in microseconds, or 0 if nothing was recorded
+	 */
+	public long mean() {
+		long requests = count.sum();
+		return requests == 0 ? 0 : total.sum() / requests;
+	}
+
+	/**
+	 * Returns the longest latency recorded.
+	 *
+	 * @return maximum in microseconds
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the latency that the given fraction of the requests took at
+	 * most, rounded up to the end of its bucket.
+	 *
+	 * @param fraction
+	 *            - between 0 and 1, such as 0.99
+	 * @return percentile in microseconds, or 0 if nothing was recorded
+	 */
+	public long percentile(double fraction) {
+		long[] counts = new long[BUCKETS];
+		long requests = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			requests += counts[i];
+		}
+		if (requests == 0) {
+			return 0;
+		}
+
+		long rank = Math.max((long) Math.ceil(fraction * requests), 1);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upper(i), max());
+			}
+		}
+		return max();
+	}
+
+	@Override
+	public String toString() {
+		return "Requests: " + count() + ", mean: " + mean() + "us, p50: "
+				+ percentile(0.5) + "us, p90: " + percentile(0.9)
+				+ "us, p99: " + percentile(0.99) + "us, max: " + max() + "us";
+	}
+
+	/**
+	 * Returns the bucket of a latency. Latencies below 8 have a bucket each,
+	 * and above that every power of two is split into 8 buckets by the three
+	 * bits after the highest one.
+	 *
+	 * @param micros
+	 * @return bucket index
+	 */
+	private static int bucket(long micros) {
+		if (micros < SUB) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int mantissa = (int) (micros >>> (exponent - SHIFT)) & (SUB - 1);
+		return (exponent - SHIFT + 1) * SUB + mantissa;
+	}
+
+	/**
+	 * Returns the largest latency that falls in a bucket.
+	 *
+	 * @param bucket
+	 * @return latency in microseconds
+	 */
+	private static long upper(int bucket) {
+		if (bucket < SUB) {
+			return bucket;
+		}
+		int exponent = bucket / SUB + SHIFT - 1;
+		int mantissa = bucket % SUB;
+		return ((SUB + mantissa + 1L) << (exponent - SHIFT)) - 1;
+	}
+}
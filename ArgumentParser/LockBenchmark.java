@@ -0,0 +1,301 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how {@link MultiReaderLock} holds up when many threads read and a
+ * few write at once, against the monitor based lock it replaced. Readers sum
+ * a small array under a read lock, and writers update every element of it
+ * under the write lock, as fast as they can for a fixed time. The optimistic
+ * run reads without locking and only takes the read lock when a write got in
+ * the way.
+ *
+ * Reported are the reads and writes per second, and how long writers waited
+ * for the write lock. A lock without writer preference lets the readers
+ * keep the writers waiting for most of the run.
+ *
+ * Usage: LockBenchmark [-readers cores] [-writers 1] [-millis 1000]
+ * [-rounds 3] [-size 64]
+ *
+ * @author CaylaR
+ *
+ */
+public class LockBenchmark {
+
+	private static final int WARMUP = 1;
+
+	private final int readers;
+	private final int writers;
+	private final int millis;
+	private final int rounds;
+	private final int size;
+
+	public LockBenchmark(ArgumentParser args) {
+		readers = integer(args, "-readers", Math.max(Runtime.getRuntime()
+				.availableProcessors(), 2));
+		writers = integer(args, "-writers", 1);
+		millis = integer(args, "-millis", 1000);
+		rounds = integer(args, "-rounds", 3);
+		size = integer(args, "-size", 64);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		new LockBenchmark(new ArgumentParser(args)).run();
+	}
+
+	/**
+	 * Runs every lock the given number of rounds after warming it up.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void run() throws InterruptedException {
+		System.out.println("Readers: " + readers + ", writers: " + writers
+				+ ", " + millis + " ms per round");
+
+		for (int round = -WARMUP; round < rounds; round++) {
+			boolean print = round >= 0;
+			measure("Monitor MultiReaderLock", new MonitorSubject(size), print);
+			measure("MultiReaderLock", new StampedSubject(size), print);
+			measure("MultiReaderLock optimistic", new OptimisticSubject(size),
+					print);
+		}
+	}
+
+	/**
+	 * Runs the readers and writers against a lock for the duration of a
+	 * round and prints what they got done.
+	 *
+	 * @param name
+	 * @param subject
+	 * @param print
+	 *            - whether to print the results, false while warming up
+	 * @throws InterruptedException
+	 */
+	private void measure(String name, final Subject subject, boolean print)
+			throws InterruptedException {
+		final LongAdder reads = new LongAdder();
+		final LongAdder writes = new LongAdder();
+		final LatencyHistogram waits = new LatencyHistogram();
+		final long end = System.nanoTime() + millis * 1000000L;
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < readers; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					long count = 0;
+					long sum = 0;
+					while (System.nanoTime() < end) {
+						for (int k = 0; k < 64; k++) {
+							sum += subject.read();
+						}
+						count += 64;
+					}
+					reads.add(count);
+					subject.sink += sum;
+				}
+			});
+		}
+		for (int i = 0; i < writers; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					while (System.nanoTime() < end) {
+						waits.record(subject.write());
+						writes.increment();
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		if (print) {
+			System.out.printf(
+					"%-28s reads/sec: %11d  writes/sec: %8d  write wait p50: "
+							+ "%7dus  p99: %7dus  max: %7dus%n", name,
+					(long) (reads.sum() / seconds),
+					(long) (writes.sum() / seconds), waits.percentile(0.5),
+					waits.percentile(0.99), waits.max());
+		}
+	}
+
+	private static int integer(ArgumentParser args, String flag, int value) {
+		return args.hasValue(flag) ? Integer.parseInt(args.getValue(flag))
+				: value;
+	}
+
+	/**
+	 * An array read and written under a lock.
+	 */
+	private abstract static class Subject {
+
+		protected final int[] data;
+
+		/** Keeps the sums of the readers from being optimized away. */
+		volatile long sink;
+
+		public Subject(int size) {
+			data = new int[size];
+		}
+
+		/**
+		 * Sums the array under a read lock.
+		 *
+		 * @return sum
+		 */
+		public abstract long read();
+
+		/**
+		 * Updates the array under the write lock.
+		 *
+		 * @return nanoseconds spent waiting for the write lock
+		 */
+		public abstract long write();
+
+		protected long sum() {
+			long sum = 0;
+			for (int value : data) {
+				sum += value;
+			}
+			return sum;
+		}
+
+		protected void update() {
+			for (int i = 0; i < data.length; i++) {
+				data[i]++;
+			}
+		}
+	}
+
+	private static class StampedSubject extends Subject {
+
+		protected final MultiReaderLock lock = new MultiReaderLock();
+
+		public StampedSubject(int size) {
+			super(size);
+		}
+
+		@Override
+		public long read() {
+			lock.lockRead();
+			try {
+				return sum();
+			} finally {
+				lock.unlockRead();
+			}
+		}
+
+		@Override
+		public long write() {
+			long start = System.nanoTime();
+			lock.lockWrite();
+			try {
+				long waited = System.nanoTime() - start;
+				update();
+				return waited;
+			} finally {
+				lock.unlockWrite();
+			}
+		}
+	}
+
+	private static class OptimisticSubject extends StampedSubject {
+
+		public OptimisticSubject(int size) {
+			super(size);
+		}
+
+		@Override
+		public long read() {
+			long stamp = lock.tryOptimisticRead();
+			long sum = sum();
+			if (lock.validate(stamp)) {
+				return sum;
+			}
+			return super.read();
+		}
+	}
+
+	private static class MonitorSubject extends Subject {
+
+		private final MonitorLock lock = new MonitorLock();
+
+		public MonitorSubject(int size) {
+			super(size);
+		}
+
+		@Override
+		public long read() {
+			lock.lockRead();
+			try {
+				return sum();
+			} finally {
+				lock.unlockRead();
+			}
+		}
+
+		@Override
+		public long write() {
+			long start = System.nanoTime();
+			lock.lockWrite();
+			try {
+				long waited = System.nanoTime() - start;
+				update();
+				return waited;
+			} finally {
+				lock.unlockWrite();
+			}
+		}
+	}
+
+	/**
+	 * The monitor based MultiReaderLock as it was before it moved to a
+	 * StampedLock, kept to compare against.
+	 */
+	private static class MonitorLock {
+		private int readers;
+		private int writers;
+
+		public synchronized void lockRead() {
+			while (writers > 0) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					System.err.println("There was a thread interrupted " + e);
+				}
+			}
+			readers += 1;
+		}
+
+		public synchronized void unlockRead() {
+			readers -= 1;
+			if (readers == 0) {
+				this.notifyAll();
+			}
+		}
+
+		public synchronized void lockWrite() {
+			while (readers > 0 || writers > 0) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					System.err.println("The thread was interrupded here " + e);
+				}
+			}
+			writers += 1;
+		}
+
+		public synchronized void unlockWrite() {
+			writers -= 1;
+			this.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,267 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the work done by the search engine while it runs: documents and
+ * words indexed, how long merging into the InvertedIndex, searches and page
+ * fetches take, and how much work is waiting in work queues.
+ *
+ * Everything is counted with {@link LongAdder}s and {@link LatencyHistogram}s
+ * shared by every thread, so recording never locks and costs about as much
+ * as an uncontended increment. The counts can be read over JMX as
+ * SearchEngine:type=Metrics after {@link #register()}, or printed every few
+ * seconds with {@link #dump(PrintStream, long)}.
+ *
+ * @author CaylaR
+ *
+ */
+public class Metrics implements MetricsMBean {
+
+	/** The metrics of this JVM, recorded by every part of the engine. */
+	public static final Metrics GLOBAL = new Metrics();
+
+	private static final String NAME = "SearchEngine:type=Metrics";
+
+	private final long started;
+	private final LongAdder documents;
+	private final LongAdder words;
+	private final LongAdder queued;
+	private final LatencyHistogram merges;
+	private final LatencyHistogram queries;
+	private final LatencyHistogram fetches;
+
+	public Metrics() {
+		started = System.nanoTime();
+		documents = new LongAdder();
+		words = new LongAdder();
+		queued = new LongAdder();
+		merges = new LatencyHistogram();
+		queries = new LatencyHistogram();
+		fetches = new LatencyHistogram();
+	}
+
+	/**
+	 * Counts a document that was indexed.
+	 *
+	 * @param count
+	 *            - number of words in the document
+	 */
+	public void indexed(int count) {
+		documents.increment();
+		words.add(count);
+	}
+
+	/**
+	 * Records how long merging a mini InvertedIndex into another one took,
+	 * including waiting for the postings of its words.
+	 *
+	 * @param nanos
+	 */
+	public void merged(long nanos) {
+		merges.record(nanos);
+	}
+
+	/**
+	 * Records how long a search took.
+	 *
+	 * @param nanos
+	 */
+	public void searched(long nanos) {
+		queries.record(nanos);
+	}
+
+	/**
+	 * Records how long fetching and scanning a page took.
+	 *
+	 * @param nanos
+	 */
+	public void fetched(long nanos) {
+		fetches.record(nanos);
+	}
+
+	/**
+	 * Counts work added to or taken from a work queue.
+	 *
+	 * @param change
+	 *            - 1 when work is added, -1 when it starts running
+	 */
+	public void queued(int change) {
+		queued.add(change);
+	}
+
+	/**
+	 * Returns the latencies of merges.
+	 *
+	 * @return histogram of merge latencies
+	 */
+	public LatencyHistogram merges() {
+		return merges;
+	}
+
+	/**
+	 * Returns the latencies of searches.
+	 *
+	 * @return histogram of search latencies
+	 */
+	public LatencyHistogram queries() {
+		return queries;
+	}
+
+	/**
+	 * Returns the latencies of page fetches.
+	 *
+	 * @return histogram of fetch latencies
+	 */
+	public LatencyHistogram fetches() {
+		return fetches;
+	}
+
+	@Override
+	public long getDocuments() {
+		return documents.sum();
+	}
+
+	@Override
+	public long getWords() {
+		return words.sum();
+	}
+
+	@Override
+	public double getDocumentsPerSecond() {
+		return rate(documents.sum());
+	}
+
+	@Override
+	public double getWordsPerSecond() {
+		return rate(words.sum());
+	}
+
+	@Override
+	public long getMerges() {
+		return merges.count();
+	}
+
+	@Override
+	public long getMergeMean() {
+		return merges.mean();
+	}
+
+	@Override
+	public long getMergeP99() {
+		return merges.percentile(0.99);
+	}
+
+	@Override
+	public long getQueries() {
+		return queries.count();
+	}
+
+	@Override
+	public long getQueryP50() {
+		return queries.percentile(0.5);
+	}
+
+	@Override
+	public long getQueryP90() {
+		return queries.percentile(0.9);
+	}
+
+	@Override
+	public long getQueryP99() {
+		return queries.percentile(0.99);
+	}
+
+	@Override
+	public long getQueryMax() {
+		return queries.max();
+	}
+
+	@Override
+	public long getQueueDepth() {
+		return queued.sum();
+	}
+
+	@Override
+	public long getFetches() {
+		return fetches.count();
+	}
+
+	@Override
+	public long getFetchP50() {
+		return fetches.percentile(0.5);
+	}
+
+	@Override
+	public long getFetchP99() {
+		return fetches.percentile(0.99);
+	}
+
+	/**
+	 * Makes these metrics readable over JMX. Registering them more than once
+	 * only prints an error.
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName(NAME));
+		} catch (JMException e) {
+			System.err.println("Unable to register metrics " + e);
+		}
+	}
+
+	/**
+	 * Prints these metrics every period on a background thread that does not
+	 * keep the JVM running.
+	 *
+	 * @param out
+	 * @param period
+	 *            - milliseconds between dumps
+	 * @return the thread printing the metrics, to shut down when done
+	 */
+	public ScheduledExecutorService dump(final PrintStream out, long period) {
+		ScheduledExecutorService dumper = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Metrics");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		dumper.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				out.println(Metrics.this);
+			}
+		}, period, Math.max(period, 1), TimeUnit.MILLISECONDS);
+		return dumper;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Documents: %d (%.1f/s), words: %d (%.1f/s), "
+				+ "queue depth: %d%n  Merges: %s%n  Queries: %s%n"
+				+ "  Fetches: %s", getDocuments(), getDocumentsPerSecond(),
+				getWords(), getWordsPerSecond(), getQueueDepth(), merges,
+				queries, fetches);
+	}
+
+	/**
+	 * Returns a count per second since these metrics were created.
+	 *
+	 * @param count
+	 * @return count per second
+	 */
+	private double rate(long count) {
+		double seconds = (System.nanoTime() - started) / 1e9;
+		return seconds > 0 ? count / seconds : 0;
+	}
+}
@@ -0,0 +1,41 @@
+/**
+ * The values of {@link Metrics} shown over JMX. Latencies are in
+ * microseconds.
+ *
+ * @author CaylaR
+ *
+ */
+public interface MetricsMBean {
+
+	public long getDocuments();
+
+	public long getWords();
+
+	public double getDocumentsPerSecond();
+
+	public double getWordsPerSecond();
+
+	public long getMerges();
+
+	public long getMergeMean();
+
+	public long getMergeP99();
+
+	public long getQueries();
+
+	public long getQueryP50();
+
+	public long getQueryP90();
+
+	public long getQueryP99();
+
+	public long getQueryMax();
+
+	public long getQueueDepth();
+
+	public long getFetches();
+
+	public long getFetchP50();
+
+	public long getFetchP99();
+}
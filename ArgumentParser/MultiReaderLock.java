@@ -1,67 +1,195 @@
+import java.util.concurrent.locks.StampedLock;
+
 /**
- * A simple custom lock that allows simultaneously read operations, but
- * disallows simultaneously write and read/write operations.
+ * A lock that allows simultaneous read operations, but disallows
+ * simultaneous write and read/write operations.
+ *
+ * The lock is built on a {@link StampedLock}. Taking a read lock while no
+ * writer holds or waits for the lock is a volatile read and a single
+ * compare-and-set, without entering a monitor. A writer holds a second lock,
+ * the gate, while it waits, and readers arriving while the gate is closed
+ * wait for it to open, so a steady stream of searches cannot keep a writer
+ * out forever. Reads of a few fields can skip locking entirely with
+ * {@link #tryOptimisticRead()}, and check with {@link #validate(long)}
+ * afterwards that no write happened in between:
+ *
+ * <pre>
+ * long stamp = lock.tryOptimisticRead();
+ * int copy = size;
+ * if (!lock.validate(stamp)) {
+ * 	lock.lockRead();
+ * 	try {
+ * 		copy = size;
+ * 	} finally {
+ * 		lock.unlockRead();
+ * 	}
+ * }
+ * </pre>
+ *
+ * The lock can also be held with try-with-resources through the handles
+ * returned by {@link #read()} and {@link #write()}.
+ *
+ * The lock is not reentrant: a thread holding it must not take it again.
+ *
+ * @author CaylaR
+ *
  */
 public class MultiReaderLock {
-	private int readers;
-	private int writers;
+
+	private final StampedLock lock;
+	private final StampedLock gate;
 
 	/**
 	 * Initializes a multi-reader (single-writer) lock.
 	 */
 	public MultiReaderLock() {
-		readers = 0;
-		writers = 0;
+		lock = new StampedLock();
+		gate = new StampedLock();
 	}
 
 	/**
-	 * Will wait until there are no active writers in the system, and then will
-	 * increase the number of active readers.
+	 * Will wait until there are no active or waiting writers, and then will
+	 * increase the number of active readers. A writer that starts waiting
+	 * while this reader waits for the gate may still go after it.
 	 */
-	public synchronized void lockRead() {
-		while (writers > 0) {
-			try {
-				this.wait();
-			} catch (InterruptedException e) {
-				System.err.println("There was a thread interrupted " + e);
-			}
+	public void lockRead() {
+		if (gate.isWriteLocked()) {
+			gate.asReadLock().lock();
+			gate.asReadLock().unlock();
 		}
-		readers += 1;
+		lock.asReadLock().lock();
 	}
 
 	/**
-	 * Will decrease the number of active readers, and notify any waiting
-	 * threads if necessary.
+	 * Like {@link #lockRead()}, but stops waiting if the thread is
+	 * interrupted.
+	 *
+	 * @throws InterruptedException
 	 */
-	public synchronized void unlockRead() {
-		readers -= 1;
-		if (readers == 0) {
-			this.notifyAll();
+	public void lockReadInterruptibly() throws InterruptedException {
+		if (gate.isWriteLocked()) {
+			gate.asReadLock().lockInterruptibly();
+			gate.asReadLock().unlock();
 		}
+		lock.asReadLock().lockInterruptibly();
 	}
 
 	/**
-	 * Will wait until there are no active readers or writers in the system, and
-	 * then will increase the number of active writers.
+	 * Will decrease the number of active readers, letting a waiting writer in
+	 * once there are none left.
 	 */
-	public synchronized void lockWrite() {
+	public void unlockRead() {
+		lock.asReadLock().unlock();
+	}
 
-		while (readers > 0 || writers > 0) {
-			try {
-				this.wait();
-			} catch (InterruptedException e) {
-				System.err.println("The thread was interrupded here " + e);
-			}
+	/**
+	 * Will wait until there are no active readers or writers, and then will
+	 * increase the number of active writers.
+	 */
+	public void lockWrite() {
+		gate.asWriteLock().lock();
+		try {
+			lock.asWriteLock().lock();
+		} finally {
+			gate.asWriteLock().unlock();
+		}
+	}
+
+	/**
+	 * Like {@link #lockWrite()}, but stops waiting if the thread is
+	 * interrupted.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void lockWriteInterruptibly() throws InterruptedException {
+		gate.asWriteLock().lockInterruptibly();
+		try {
+			lock.asWriteLock().lockInterruptibly();
+		} finally {
+			gate.asWriteLock().unlock();
 		}
-		writers += 1;
 	}
 
 	/**
-	 * Will decrease the number of active writers, and notify any waiting
-	 * threads if necessary.
+	 * Will decrease the number of active writers, letting waiting threads in.
+	 */
+	public void unlockWrite() {
+		lock.asWriteLock().unlock();
+	}
+
+	/**
+	 * Takes a read lock that is given back when the handle is closed, for use
+	 * with try-with-resources.
+	 *
+	 * @return handle to close
 	 */
-	public synchronized void unlockWrite() {
-		writers -= 1;
-		this.notifyAll();
+	public Handle read() {
+		lockRead();
+		return new Handle() {
+			@Override
+			protected void release() {
+				unlockRead();
+			}
+		};
+	}
+
+	/**
+	 * Takes the write lock that is given back when the handle is closed, for
+	 * use with try-with-resources.
+	 *
+	 * @return handle to close
+	 */
+	public Handle write() {
+		lockWrite();
+		return new Handle() {
+			@Override
+			protected void release() {
+				unlockWrite();
+			}
+		};
+	}
+
+	/**
+	 * Starts an optimistic read without locking.
+	 *
+	 * @return stamp to validate, or 0 if the write lock is held
+	 */
+	public long tryOptimisticRead() {
+		return lock.tryOptimisticRead();
+	}
+
+	/**
+	 * Tests if no write lock has been taken since the stamp was returned, so
+	 * what was read since then is consistent.
+	 *
+	 * @param stamp
+	 *            - stamp from {@link #tryOptimisticRead()}
+	 * @return true if the reads are valid
+	 */
+	public boolean validate(long stamp) {
+		return lock.validate(stamp);
+	}
+
+	/**
+	 * Gives back a lock when closed. A handle is only used by the thread that
+	 * took the lock, and closing it again does nothing, so the lock is never
+	 * given back twice.
+	 */
+	public abstract static class Handle implements AutoCloseable {
+
+		private boolean closed;
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				release();
+			}
+		}
+
+		/**
+		 * Gives back the lock the handle was returned for.
+		 */
+		protected abstract void release();
 	}
-}
\ No newline at end of file
+}
@@ -1,6 +1,10 @@
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,7 +21,7 @@ public class MultithreadedInvertedIndexBuilder extends IndexBuilder {
 	private final InvertedIndex indexmap;
 
 	private final WorkQueue minions;
-	private int pending;
+	private final int threads;
 
 	/**
 	 * Constructor for the Thread Class. Instantiates the WorkQueue to be used
@@ -28,7 +32,7 @@ public class MultithreadedInvertedIndexBuilder extends IndexBuilder {
 	 */
 	public MultithreadedInvertedIndexBuilder(InvertedIndex index, int threads) {
 		minions = new WorkQueue(threads);
-		pending = 0;
+		this.threads = threads;
 		indexmap = index;
 	}
 
@@ -37,15 +41,8 @@ public class MultithreadedInvertedIndexBuilder extends IndexBuilder {
 	 * done. This is useful for resetting the counters or shutting down the work
 	 * queue.
 	 */
-	public synchronized void finish() {
-		try {
-			while (pending > 0) {
-				logger.debug("Waiting until finished");
-				this.wait();
-			}
-		} catch (InterruptedException e) {
-			logger.debug("Finish interrupted", e);
-		}
+	public void finish() {
+		minions.finish();
 	}
 
 	/**
@@ -53,7 +50,7 @@ public class MultithreadedInvertedIndexBuilder extends IndexBuilder {
 	 * finished. Necessary to prevent our code from running forever in the
 	 * background.
 	 */
-	public synchronized void shutdown() {
+	public void shutdown() {
 		logger.debug("Shutting down");
 		finish();
 		minions.shutdown();
@@ -81,9 +78,88 @@ public class MultithreadedInvertedIndexBuilder extends IndexBuilder {
 		}
 	}
 
+	/**
+	 * Sends a minion to add each of the given files to the InvertedIndex.
+	 * Returns once all of them have been added.
+	 * 
+	 * @param files
+	 */
+	public void addFiles(List<Path> files) {
+		for (Path path : files) {
+			minions.execute(new Minion(path));
+		}
+		finish();
+	}
+
+	/**
+	 * Builds a mini InvertedIndex for every .txt file in the directory and
+	 * merges them pairwise in parallel, so that the merging is spread across
+	 * all of the threads. Only the final merged index is added to the main
+	 * InvertedIndex. Returns once the main InvertedIndex is complete.
+	 * 
+	 * @param directory
+	 */
+	public void mergeMainInvertedIndex(Path directory) {
+		List<String> files = DirectoryTraverser.traverse(directory);
+		if (files.isEmpty()) {
+			return;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			indexmap.addAll(pool.invoke(new Merger(files, 0, files.size())));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Parses a range of files into a single mini InvertedIndex by splitting
+	 * the range in half, building both halves in parallel and merging the
+	 * second half into the first.
+	 * 
+	 * @author CaylaR
+	 * 
+	 */
+	private static class Merger extends RecursiveTask<InvertedIndex> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> files;
+		private final int start;
+		private final int end;
+
+		public Merger(List<String> files, int start, int end) {
+			this.files = files;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected InvertedIndex compute() {
+			if (end - start == 1) {
+				InvertedIndex mini = new InvertedIndex();
+				IndexBuilder.parseFile(Paths.get(files.get(start)), mini);
+				logger.debug("Merger parsed {}", files.get(start));
+				return mini;
+			}
+
+			int middle = (start + end) >>> 1;
+			Merger left = new Merger(files, start, middle);
+			Merger right = new Merger(files, middle, end);
+			right.fork();
+			InvertedIndex first = left.compute();
+			InvertedIndex second = right.join();
+
+			first.addAll(second);
+			return first;
+		}
+	}
+
 	/**
 	 * Traverses a directory and creates a single Minion for each .txt file to
-	 * create their own mini InvertedIndex to add to the main InvertedIndex.
+	 * add its words straight into the main InvertedIndex, which takes care of
+	 * its own locking one word at a time.
 	 * 
 	 * @author CaylaR
 	 * 
@@ -95,40 +171,14 @@ public class MultithreadedInvertedIndexBuilder extends IndexBuilder {
 		public Minion(Path directory) {
 			logger.debug("Minion created for {}", directory);
 			this.path = directory;
-			incrementPending();
 		}
 
 		@Override
 		public void run() {
-			// where a mini InvertedIndex is created for each single thread
 			if (path.toString().toLowerCase().endsWith(".txt")) {
-				InvertedIndex mini = new InvertedIndex();
-				IndexBuilder.parseFile(path, mini);
-				indexmap.addAll(mini);
+				IndexBuilder.parseFile(path, indexmap);
 			}
-			decrementPending();
 			logger.debug("Minion finished {}", path);
 		}
 	}
-
-	/**
-	 * Indicates that we now have additional "pending" work to wait for.
-	 */
-	private synchronized void incrementPending() {
-		pending++;
-		logger.debug("Pending is now {}", pending);
-	}
-
-	/**
-	 * Indicates that we now have one less "pending" work, and will notify any
-	 * waiting threads if we no longer have any more pending work left.
-	 */
-	private synchronized void decrementPending() {
-		pending--;
-		logger.debug("Pending is now {}", pending);
-
-		if (pending <= 0) {
-			this.notifyAll();
-		}
-	}
 }
\ No newline at end of file
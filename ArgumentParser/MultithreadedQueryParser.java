@@ -5,6 +5,8 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 
@@ -24,7 +26,6 @@ public class MultithreadedQueryParser {
 
 	private final LinkedHashMap<String, List<SearchResult>> result;
 	private final WorkQueue minions;
-	private int pending;
 
 	/**
 	 * Constructor for the Thread Class. Instantiates the WorkQueue to be used
@@ -33,9 +34,8 @@ public class MultithreadedQueryParser {
 	 * @param index
 	 * @param threads
 	 */
-	public MultithreadedQueryParser(InvertedIndex index, int threads) {
+	public MultithreadedQueryParser(Searchable index, int threads) {
 		minions = new WorkQueue(threads);
-		pending = 0;
 		result = new LinkedHashMap<>();
 		lock = new MultiReaderLock();
 
@@ -46,15 +46,8 @@ public class MultithreadedQueryParser {
 	 * done. This is useful for resetting the counters or shutting down the work
 	 * queue.
 	 */
-	public synchronized void finish() {
-		try {
-			while (pending > 0) {
-				logger.debug("Waiting until finished");
-				this.wait();
-			}
-		} catch (InterruptedException e) {
-			logger.debug("Finish interrupted", e);
-		}
+	public void finish() {
+		minions.finish();
 	}
 
 	/**
@@ -62,7 +55,7 @@ public class MultithreadedQueryParser {
 	 * finished. Necessary to prevent our code from running forever in the
 	 * background.
 	 */
-	public synchronized void shutdown() {
+	public void shutdown() {
 		logger.debug("Shutting down");
 		finish();
 		minions.shutdown();
@@ -73,7 +66,7 @@ public class MultithreadedQueryParser {
 	 * 
 	 * @param directory
 	 */
-	public void runThreads(String file, InvertedIndex index) {
+	public void runThreads(String file, Searchable index) {
 		minions.execute(new Minion(file, index));
 	}
 
@@ -83,15 +76,18 @@ public class MultithreadedQueryParser {
 	 * @param filename
 	 *            - path to take in
 	 */
-	public void queryParser(Path filename, InvertedIndex index) {
+	public void queryParser(Path filename, Searchable index) {
 
 		try (BufferedReader reader = Files.newBufferedReader(filename,
 				Charset.forName("UTF-8"));) {
 			String line = null;
 			while ((line = reader.readLine()) != null) {
 				lock.lockWrite();
-				result.put(line, null);
-				lock.unlockWrite();
+				try {
+					result.put(line, null);
+				} finally {
+					lock.unlockWrite();
+				}
 				minions.execute(new Minion(line, index));
 			}
 		} catch (IOException e) {
@@ -100,6 +96,50 @@ public class MultithreadedQueryParser {
 		}
 	}
 
+	/**
+	 * Searches every query in the file like
+	 * {@link #queryParser(Path, Searchable)}, but writes the results to the
+	 * output in the same format as {@link #write(String)} while they are
+	 * found, instead of keeping all of them until the end. A line that was
+	 * already read is not searched again, since it is only written once.
+	 * Returns once every result has been written.
+	 * 
+	 * @param filename
+	 *            - path to take in
+	 * @param index
+	 * @param output
+	 *            - path to output file
+	 */
+	public void queryParser(Path filename, Searchable index, Path output) {
+		HashSet<String> seen = new HashSet<>();
+		ResultWriter writer = null;
+		try (BufferedReader reader = Files.newBufferedReader(filename,
+				Charset.forName("UTF-8"));) {
+			writer = new ResultWriter(output);
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				if (seen.add(line)) {
+					minions.execute(new Minion(line, index, writer, writer
+							.reserve()));
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("An error has occurred with your file!!"
+					+ filename);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		finish();
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				System.err.println("No File Written");
+			}
+		}
+	}
+
 	/**
 	 * Outputs search results to file.
 	 * 
@@ -123,8 +163,9 @@ public class MultithreadedQueryParser {
 			}
 		} catch (IOException e) {
 			System.err.println("No File Written");
+		} finally {
+			lock.unlockRead();
 		}
-		lock.unlockRead();
 	}
 
 	/**
@@ -136,48 +177,57 @@ public class MultithreadedQueryParser {
 	private class Minion implements Runnable {
 
 		private final String line;
-		private final InvertedIndex indexmap;
+		private final Searchable indexmap;
+		private final ResultWriter writer;
+		private final int sequence;
 
-		public Minion(String line, InvertedIndex index) {
+		public Minion(String line, Searchable index) {
+			this(line, index, null, 0);
+		}
+
+		/**
+		 * Creates a minion that hands its results to a writer instead of
+		 * keeping them.
+		 * 
+		 * @param line
+		 * @param index
+		 * @param writer
+		 *            - writer to complete, or null to keep the results
+		 * @param sequence
+		 *            - place of the line in the output
+		 */
+		public Minion(String line, Searchable index, ResultWriter writer,
+				int sequence) {
 			logger.debug("Minion created for {}", line);
 			this.line = line;
 			indexmap = index;
-			incrementPending();
+			this.writer = writer;
+			this.sequence = sequence;
 		}
 
 		@Override
 		public void run() {
 			List<String> querylist = WordParser.parseText(line);
-			List<SearchResult> searchResult;
-
-			searchResult = indexmap.partialSearch(querylist);
-
-			lock.lockWrite();
-			result.put(line, searchResult);
-			lock.unlockWrite();
-			decrementPending();
+			List<SearchResult> searchResult = Collections.emptyList();
+
+			try {
+				long start = System.nanoTime();
+				searchResult = indexmap.partialSearch(querylist);
+				Metrics.GLOBAL.searched(System.nanoTime() - start);
+			} finally {
+				if (writer != null) {
+					// later results wait for this one, even if it failed
+					writer.complete(sequence, line, searchResult);
+				} else {
+					lock.lockWrite();
+					try {
+						result.put(line, searchResult);
+					} finally {
+						lock.unlockWrite();
+					}
+				}
+			}
 			logger.debug("Minion finished {}", line);
 		}
 	}
-
-	/**
-	 * Indicates that we now have additional "pending" work to wait for.
-	 */
-	private synchronized void incrementPending() {
-		pending++;
-		logger.debug("Pending is now {}", pending);
-	}
-
-	/**
-	 * Indicates that we now have one less "pending" work, and will notify any
-	 * waiting threads if we no longer have any more pending work left.
-	 */
-	private synchronized void decrementPending() {
-		pending--;
-		logger.debug("Pending is now {}", pending);
-
-		if (pending <= 0) {
-			this.notifyAll();
-		}
-	}
 }
\ No newline at end of file
@@ -0,0 +1,289 @@
+import java.util.Arrays;
+
+/**
+ * Stores every location of a single word. Documents are kept as ids from the
+ * {@link DocumentTable} in increasing order, and the locations within each
+ * document are kept in a growable int array as the difference from the
+ * previous location, in the order they were added.
+ * 
+ * All methods synchronize on the list itself, so different words can be
+ * updated by different threads at the same time. Callers reading several
+ * entries at once should synchronize on the list to see a consistent view.
+ *
+ * @author CaylaR
+ *
+ */
+public class PostingList {
+
+	private static final int INITIAL_DOCUMENTS = 2;
+	private static final int INITIAL_POSITIONS = 4;
+
+	private int[] documents;
+	private int[][] deltas;
+	private int[] counts;
+	private int[] last;
+	private int size;
+	private boolean retired;
+
+	public PostingList() {
+		documents = new int[INITIAL_DOCUMENTS];
+		deltas = new int[INITIAL_DOCUMENTS][];
+		counts = new int[INITIAL_DOCUMENTS];
+		last = new int[INITIAL_DOCUMENTS];
+		size = 0;
+		retired = false;
+	}
+
+	/**
+	 * Adds a location of the word within the given document.
+	 *
+	 * @param document
+	 *            - document id
+	 * @param position
+	 *            - location of the word in the document
+	 * @return false if the list has been retired and nothing was added
+	 */
+	public synchronized boolean add(int document, int position) {
+		if (retired) {
+			return false;
+		}
+		int i = slot(document);
+		int count = counts[i];
+		if (count == deltas[i].length) {
+			deltas[i] = Arrays.copyOf(deltas[i], count * 2);
+		}
+		deltas[i][count] = position - last[i];
+		counts[i] = count + 1;
+		last[i] = position;
+		return true;
+	}
+
+	/**
+	 * Appends all of the locations stored in another list, translating its
+	 * document ids with the given mapping. The other list must not be
+	 * modified while it is being copied.
+	 *
+	 * @param other
+	 *            - list to copy locations from
+	 * @param mapping
+	 *            - document id in this list, indexed by document id in other
+	 * @return false if the list has been retired and nothing was added
+	 */
+	public synchronized boolean addAll(PostingList other, int[] mapping) {
+		if (retired) {
+			return false;
+		}
+		for (int j = 0; j < other.size; j++) {
+			int i = slot(mapping[other.documents[j]]);
+			int count = counts[i];
+			int more = other.counts[j];
+			if (count + more > deltas[i].length) {
+				deltas[i] = Arrays.copyOf(deltas[i],
+						Math.max(count + more, count * 2));
+			}
+			System.arraycopy(other.deltas[j], 0, deltas[i], count, more);
+			// the first delta of the other list is relative to zero
+			deltas[i][count] -= last[i];
+			counts[i] = count + more;
+			last[i] = other.last[j];
+		}
+		return true;
+	}
+
+	/**
+	 * Appends the locations of a document stored as differences from the
+	 * previous location, the first one relative to zero, as they are stored
+	 * in an {@link IndexSegment}.
+	 *
+	 * @param document
+	 *            - document id
+	 * @param more
+	 *            - differences between locations
+	 * @param count
+	 *            - number of differences to copy
+	 * @param position
+	 *            - the last location, the sum of the differences
+	 */
+	public synchronized void append(int document, int[] more, int count,
+			int position) {
+		int i = slot(document);
+		int stored = counts[i];
+		if (stored + count > deltas[i].length) {
+			deltas[i] = Arrays.copyOf(deltas[i],
+					Math.max(stored + count, stored * 2));
+		}
+		System.arraycopy(more, 0, deltas[i], stored, count);
+		deltas[i][stored] -= last[i];
+		counts[i] = stored + count;
+		last[i] = position;
+	}
+
+	/**
+	 * Removes every location of the word within the given documents, keeping
+	 * the remaining documents in order.
+	 *
+	 * @param removed
+	 *            - document ids in increasing order
+	 * @return number of documents removed
+	 */
+	public synchronized int remove(int[] removed) {
+		if (size == 0 || removed.length == 0
+				|| documents[0] > removed[removed.length - 1]
+				|| documents[size - 1] < removed[0]) {
+			return 0;
+		}
+
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (Arrays.binarySearch(removed, documents[i]) >= 0) {
+				continue;
+			}
+			documents[kept] = documents[i];
+			deltas[kept] = deltas[i];
+			counts[kept] = counts[i];
+			last[kept] = last[i];
+			kept++;
+		}
+
+		int count = size - kept;
+		Arrays.fill(deltas, kept, size, null);
+		size = kept;
+		return count;
+	}
+
+	/**
+	 * Marks the list as no longer part of the index, once it has been taken
+	 * out of the index for being empty. Locations added to it afterwards are
+	 * refused, so they can be added to the word's new list instead.
+	 */
+	public synchronized void retire() {
+		retired = true;
+	}
+
+	/**
+	 * Returns the number of documents the word was found in.
+	 *
+	 * @return number of documents
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the document id stored at the given index.
+	 *
+	 * @param index
+	 * @return document id
+	 */
+	public synchronized int document(int index) {
+		return documents[index];
+	}
+
+	/**
+	 * Returns how many times the word was found in the document at the given
+	 * index.
+	 *
+	 * @param index
+	 * @return number of locations
+	 */
+	public synchronized int count(int index) {
+		return counts[index];
+	}
+
+	/**
+	 * Returns the first location added for the document at the given index.
+	 *
+	 * @param index
+	 * @return first location
+	 */
+	public synchronized int first(int index) {
+		return deltas[index][0];
+	}
+
+	/**
+	 * Decodes the locations of the document at the given index, in the order
+	 * they were added.
+	 *
+	 * @param index
+	 * @return array of locations
+	 */
+	public synchronized int[] positions(int index) {
+		int[] positions = new int[counts[index]];
+		int position = 0;
+		for (int k = 0; k < positions.length; k++) {
+			position += deltas[index][k];
+			positions[k] = position;
+		}
+		return positions;
+	}
+
+	/**
+	 * Returns the indices of the documents in this list sorted by the given
+	 * rank of each document, such as the ranks from
+	 * {@link DocumentTable#ranks()}. Documents added after the ranks were
+	 * taken have no rank, and are ranked -1 like hidden documents.
+	 *
+	 * @param ranks
+	 *            - rank of every document, indexed by document id
+	 * @return indices into this list in rank order
+	 */
+	public synchronized int[] order(int[] ranks) {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			int rank = documents[i] < ranks.length ? ranks[documents[i]] : -1;
+			keys[i] = ((long) rank << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Finds the index of the given document, inserting an empty entry for it
+	 * if it is not stored yet. Documents nearly always arrive in increasing
+	 * order, so the last entry is checked before searching.
+	 *
+	 * @param document
+	 * @return index of the document
+	 */
+	private int slot(int document) {
+		if (size > 0 && documents[size - 1] == document) {
+			return size - 1;
+		}
+
+		int i;
+		if (size == 0 || documents[size - 1] < document) {
+			i = size;
+		} else {
+			i = Arrays.binarySearch(documents, 0, size, document);
+			if (i >= 0) {
+				return i;
+			}
+			i = -(i + 1);
+		}
+
+		if (size == documents.length) {
+			int capacity = size * 2;
+			documents = Arrays.copyOf(documents, capacity);
+			deltas = Arrays.copyOf(deltas, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+			last = Arrays.copyOf(last, capacity);
+		}
+		if (i < size) {
+			System.arraycopy(documents, i, documents, i + 1, size - i);
+			System.arraycopy(deltas, i, deltas, i + 1, size - i);
+			System.arraycopy(counts, i, counts, i + 1, size - i);
+			System.arraycopy(last, i, last, i + 1, size - i);
+		}
+		documents[i] = document;
+		deltas[i] = new int[INITIAL_POSITIONS];
+		counts[i] = 0;
+		last[i] = 0;
+		size++;
+		return i;
+	}
+}
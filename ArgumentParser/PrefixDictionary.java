@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * A compressed trie over a snapshot of the words of an InvertedIndex, used to
+ * find every word starting with a prefix without comparing whole strings.
+ *
+ * The words are kept in a sorted array, so the words under any trie node form
+ * a contiguous range of that array. Each node covers a run of characters that
+ * all of its words share, so a chain of single children is stored as one
+ * node. Looking up a prefix walks at most one node per character and then
+ * returns the whole range at once. The number of documents under every range
+ * is precomputed as a running total.
+ *
+ * @author CaylaR
+ *
+ */
+public class PrefixDictionary {
+
+	private final String[] terms;
+	private final PostingList[] postings;
+	private final long[] documents;
+	private final Node root;
+	private final long version;
+
+	/**
+	 * Builds the trie from the words currently in the map.
+	 *
+	 * @param indexmap
+	 *            - sorted words and their postings
+	 * @param version
+	 *            - version of the index the snapshot was taken from
+	 */
+	public PrefixDictionary(SortedMap<String, PostingList> indexmap,
+			long version) {
+		ArrayList<String> words = new ArrayList<>();
+		ArrayList<PostingList> lists = new ArrayList<>();
+		for (Map.Entry<String, PostingList> entry : indexmap.entrySet()) {
+			words.add(entry.getKey());
+			lists.add(entry.getValue());
+		}
+
+		this.terms = words.toArray(new String[words.size()]);
+		this.postings = lists.toArray(new PostingList[lists.size()]);
+		this.documents = new long[terms.length + 1];
+		for (int i = 0; i < terms.length; i++) {
+			documents[i + 1] = documents[i] + postings[i].size();
+		}
+		this.root = terms.length == 0 ? null : build(0, terms.length, 0);
+		this.version = version;
+	}
+
+	/**
+	 * Returns the version of the index this dictionary was built from.
+	 *
+	 * @return version
+	 */
+	public long version() {
+		return version;
+	}
+
+	/**
+	 * Returns the postings of every word starting with the prefix, in word
+	 * order.
+	 *
+	 * @param prefix
+	 * @return postings of the matching words
+	 */
+	public List<PostingList> postings(String prefix) {
+		Node node = find(prefix);
+		if (node == null) {
+			return Collections.emptyList();
+		}
+		return Arrays.asList(postings).subList(node.start, node.end);
+	}
+
+	/**
+	 * Returns every word starting with the prefix, in sorted order.
+	 *
+	 * @param prefix
+	 * @return matching words
+	 */
+	public List<String> terms(String prefix) {
+		Node node = find(prefix);
+		if (node == null) {
+			return Collections.emptyList();
+		}
+		return Arrays.asList(terms).subList(node.start, node.end);
+	}
+
+	/**
+	 * Returns how many words start with the prefix.
+	 *
+	 * @param prefix
+	 * @return number of matching words
+	 */
+	public int size(String prefix) {
+		Node node = find(prefix);
+		return node == null ? 0 : node.end - node.start;
+	}
+
+	/**
+	 * Returns the total number of documents listed by the words starting with
+	 * the prefix, as of when the dictionary was built. A document containing
+	 * several matching words is counted once per word.
+	 *
+	 * @param prefix
+	 * @return number of postings under the prefix
+	 */
+	public long documents(String prefix) {
+		Node node = find(prefix);
+		return node == null ? 0 : documents[node.end] - documents[node.start];
+	}
+
+	/**
+	 * Walks down the trie one node at a time, checking the characters each
+	 * node covers against the prefix.
+	 *
+	 * @param prefix
+	 * @return the highest node whose words all start with the prefix, or null
+	 *         if there are none
+	 */
+	private Node find(String prefix) {
+		Node node = root;
+		int checked = 0;
+		while (node != null) {
+			String sample = terms[node.start];
+			int limit = Math.min(node.depth, prefix.length());
+			for (; checked < limit; checked++) {
+				if (sample.charAt(checked) != prefix.charAt(checked)) {
+					return null;
+				}
+			}
+
+			if (prefix.length() <= node.depth) {
+				return node;
+			}
+
+			int child = Arrays.binarySearch(node.labels,
+					prefix.charAt(node.depth));
+			if (child < 0) {
+				return null;
+			}
+			node = node.children[child];
+			checked++;
+		}
+		return null;
+	}
+
+	/**
+	 * Builds the node for a range of words that share their first characters,
+	 * extending it for as long as every word in the range shares the next
+	 * character too.
+	 *
+	 * @param start
+	 *            - first word in the range
+	 * @param end
+	 *            - one past the last word in the range
+	 * @param depth
+	 *            - number of characters shared by every word in the range
+	 * @return node for the range
+	 */
+	private Node build(int start, int end, int depth) {
+		String first = terms[start];
+		String last = terms[end - 1];
+		while (first.length() > depth && last.length() > depth
+				&& first.charAt(depth) == last.charAt(depth)) {
+			depth++;
+		}
+
+		// only the first word can end here, the rest continue past depth
+		int i = first.length() == depth ? start + 1 : start;
+
+		ArrayList<Character> labels = new ArrayList<>();
+		ArrayList<Node> children = new ArrayList<>();
+		while (i < end) {
+			char label = terms[i].charAt(depth);
+			int j = i + 1;
+			while (j < end && terms[j].charAt(depth) == label) {
+				j++;
+			}
+			labels.add(label);
+			children.add(build(i, j, depth + 1));
+			i = j;
+		}
+
+		Node node = new Node(start, end, depth, labels.size());
+		for (int k = 0; k < labels.size(); k++) {
+			node.labels[k] = labels.get(k);
+			node.children[k] = children.get(k);
+		}
+		return node;
+	}
+
+	/**
+	 * A node of the trie, covering the words from start to end which all
+	 * share their first depth characters.
+	 */
+	private static class Node {
+
+		private final int start;
+		private final int end;
+		private final int depth;
+		private final char[] labels;
+		private final Node[] children;
+
+		public Node(int start, int end, int depth, int size) {
+			this.start = start;
+			this.end = end;
+			this.depth = depth;
+			this.labels = new char[size];
+			this.children = new Node[size];
+		}
+	}
+}
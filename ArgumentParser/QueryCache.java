@@ -0,0 +1,258 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the results of recent searches so that repeated queries are
+ * answered without searching the index again.
+ *
+ * The cache is split into segments that are locked separately, each kept in
+ * least recently used order. The size of an entry is one plus its number of
+ * results, and the oldest entries of a segment are evicted once the segment
+ * holds more than its share of the maximum size. Every entry remembers the
+ * version of the index it was computed from and is dropped on the next
+ * lookup once the index has changed.
+ *
+ * @author CaylaR
+ *
+ */
+public class QueryCache implements Searchable {
+
+	/** The default maximum size when not specified. */
+	public static final int DEFAULT = 100000;
+
+	private static final int SEGMENTS = 16;
+	private static final int FULL = -1;
+
+	private final Searchable index;
+	private final Segment[] segments;
+
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder evictions;
+
+	/**
+	 * Starts a cache of the default size in front of an index.
+	 *
+	 * @param index
+	 */
+	public QueryCache(Searchable index) {
+		this(index, DEFAULT);
+	}
+
+	/**
+	 * Starts a cache in front of an index.
+	 *
+	 * @param index
+	 * @param size
+	 *            - maximum number of entries and results held
+	 */
+	public QueryCache(Searchable index, int size) {
+		this.index = index;
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(Math.max(size / SEGMENTS, 1));
+		}
+		hits = new LongAdder();
+		misses = new LongAdder();
+		evictions = new LongAdder();
+	}
+
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries) {
+		return search(queries, FULL);
+	}
+
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries, int limit) {
+		return search(queries, Math.max(limit, 0));
+	}
+
+	@Override
+	public long version() {
+		return index.version();
+	}
+
+	/**
+	 * Returns the number of searches answered from the cache.
+	 *
+	 * @return number of hits
+	 */
+	public long hits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of searches passed on to the index.
+	 *
+	 * @return number of misses
+	 */
+	public long misses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of entries evicted to stay within the maximum size.
+	 *
+	 * @return number of evictions
+	 */
+	public long evictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Empties the cache.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Cache hits: " + hits() + ", misses: " + misses()
+				+ ", evictions: " + evictions();
+	}
+
+	/**
+	 * Looks up the results for the queries, searching the index if they are
+	 * missing or out of date. The query words are sorted first, since the
+	 * results do not depend on their order.
+	 *
+	 * @param queries
+	 * @param limit
+	 *            - maximum number of results, or FULL for all of them
+	 * @return list of searchresults, which must not be modified
+	 */
+	private List<SearchResult> search(List<String> queries, int limit) {
+		List<String> words = new ArrayList<>(queries);
+		Collections.sort(words);
+		Key key = new Key(words, limit);
+		Segment segment = segments[(key.hashCode() & 0x7FFFFFFF) % SEGMENTS];
+
+		long version = index.version();
+		List<SearchResult> results = segment.get(key, version);
+		if (results != null) {
+			hits.increment();
+			return results;
+		}
+
+		misses.increment();
+		if (limit == FULL) {
+			results = index.partialSearch(words);
+		} else {
+			results = index.partialSearch(words, limit);
+		}
+		results = Collections.unmodifiableList(results);
+		segment.put(key, new Entry(results, version));
+		return results;
+	}
+
+	/**
+	 * The sorted query words and the result limit of a search.
+	 */
+	private static class Key {
+
+		private final List<String> words;
+		private final int limit;
+		private final int hash;
+
+		public Key(List<String> words, int limit) {
+			this.words = words;
+			this.limit = limit;
+			this.hash = words.hashCode() * 31 + limit;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return hash == key.hash && limit == key.limit
+					&& words.equals(key.words);
+		}
+	}
+
+	/**
+	 * Cached results and the index version they were computed from.
+	 */
+	private static class Entry {
+
+		private final List<SearchResult> results;
+		private final long version;
+
+		public Entry(List<SearchResult> results, long version) {
+			this.results = results;
+			this.version = version;
+		}
+
+		public int size() {
+			return 1 + results.size();
+		}
+	}
+
+	/**
+	 * A part of the cache with its own lock, kept in access order.
+	 */
+	private class Segment {
+
+		private final LinkedHashMap<Key, Entry> entries;
+		private final int capacity;
+		private int size;
+
+		public Segment(int capacity) {
+			this.entries = new LinkedHashMap<>(16, 0.75f, true);
+			this.capacity = capacity;
+			this.size = 0;
+		}
+
+		public synchronized List<SearchResult> get(Key key, long version) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.version != version) {
+				entries.remove(key);
+				size -= entry.size();
+				return null;
+			}
+			return entry.results;
+		}
+
+		public synchronized void put(Key key, Entry entry) {
+			if (entry.size() > capacity) {
+				return;
+			}
+
+			Entry previous = entries.put(key, entry);
+			if (previous != null) {
+				size -= previous.size();
+			}
+			size += entry.size();
+
+			Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet()
+					.iterator();
+			while (size > capacity && eldest.hasNext()) {
+				size -= eldest.next().getValue().size();
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+
+		public synchronized void clear() {
+			entries.clear();
+			size = 0;
+		}
+	}
+}
@@ -28,7 +28,7 @@ public class QueryParser {
 	 * @param filename
 	 *            - path to take in
 	 */
-	public void queryParser(Path filename, InvertedIndex index) {
+	public void queryParser(Path filename, Searchable index) {
 
 		try (BufferedReader reader = Files.newBufferedReader(filename,
 				Charset.forName("UTF-8"));) {
@@ -45,7 +45,9 @@ public class QueryParser {
 
 				List<String> querylist = WordParser.parseText(line);
 
+				long start = System.nanoTime();
 				result.put(line, index.partialSearch(querylist));
+				Metrics.GLOBAL.searched(System.nanoTime() - start);
 
 			}
 
@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Adds up the frequency and first position of every document matched by a
+ * search in primitive arrays, keyed by document id, and only creates
+ * {@link SearchResult} objects for the documents that are returned.
+ *
+ * @author CaylaR
+ *
+ */
+public abstract class ResultCollector {
+
+	private static final int EMPTY = -1;
+
+	private int[] documents;
+	private int[] frequencies;
+	private int[] positions;
+	private int size;
+
+	/**
+	 * Starts an empty collector.
+	 *
+	 * @param expected
+	 *            - number of documents expected, used to size the arrays
+	 */
+	public ResultCollector(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2 && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Returns the path of a document id.
+	 *
+	 * @param document
+	 * @return path of the document
+	 */
+	protected abstract String path(int document);
+
+	/**
+	 * Adds the frequency of a word in a document, keeping the smallest
+	 * position seen for the document.
+	 *
+	 * @param document
+	 * @param frequency
+	 * @param position
+	 */
+	public void add(int document, int frequency, int position) {
+		int slot = slot(document);
+		if (documents[slot] == EMPTY) {
+			documents[slot] = document;
+			frequencies[slot] = frequency;
+			positions[slot] = position;
+			if (++size * 2 > documents.length) {
+				grow();
+			}
+		} else {
+			frequencies[slot] += frequency;
+			if (positions[slot] > position) {
+				positions[slot] = position;
+			}
+		}
+	}
+
+	/**
+	 * Adds every document collected by another collector, as if its words
+	 * had been added to this one. Both must use the same document ids.
+	 *
+	 * @param other
+	 */
+	public void addAll(ResultCollector other) {
+		for (int slot = 0; slot < other.documents.length; slot++) {
+			if (other.documents[slot] != EMPTY) {
+				add(other.documents[slot], other.frequencies[slot],
+						other.positions[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of documents collected.
+	 *
+	 * @return number of documents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a result for every document collected, sorted by
+	 * {@link SearchResult#compareTo(SearchResult)}.
+	 *
+	 * @return list of searchresults
+	 */
+	public List<SearchResult> results() {
+		List<SearchResult> results = new ArrayList<>(size);
+		for (int slot = 0; slot < documents.length; slot++) {
+			if (documents[slot] != EMPTY) {
+				results.add(new SearchResult(frequencies[slot],
+						positions[slot], path(documents[slot])));
+			}
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Returns the best results, in the same order as {@link #results()} but
+	 * without sorting every document. A heap holds the best results so far
+	 * with the worst on top, and a document only becomes a
+	 * {@link SearchResult} if it beats the worst one.
+	 *
+	 * @param limit
+	 *            - maximum number of results
+	 * @return list of at most limit searchresults
+	 */
+	public List<SearchResult> results(int limit) {
+		if (limit <= 0) {
+			return new ArrayList<>();
+		}
+
+		PriorityQueue<SearchResult> heap = new PriorityQueue<>(Math.min(
+				limit, Math.max(size, 1)), Collections.reverseOrder());
+		for (int slot = 0; slot < documents.length; slot++) {
+			if (documents[slot] == EMPTY) {
+				continue;
+			}
+
+			if (heap.size() < limit) {
+				heap.add(new SearchResult(frequencies[slot], positions[slot],
+						path(documents[slot])));
+			} else if (beats(slot, heap.peek())) {
+				heap.poll();
+				heap.add(new SearchResult(frequencies[slot], positions[slot],
+						path(documents[slot])));
+			}
+		}
+
+		List<SearchResult> results = new ArrayList<>(heap);
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * Tests if the document in a slot sorts before a result, comparing the
+	 * path only when the frequency and position are the same.
+	 *
+	 * @param slot
+	 * @param worst
+	 * @return true if the document should replace the result
+	 */
+	private boolean beats(int slot, SearchResult worst) {
+		if (frequencies[slot] != worst.getFrequency()) {
+			return frequencies[slot] > worst.getFrequency();
+		}
+		if (positions[slot] != worst.getPosition()) {
+			return positions[slot] < worst.getPosition();
+		}
+		return path(documents[slot]).compareTo(worst.getPath()) < 0;
+	}
+
+	/**
+	 * Finds the slot holding a document, or the empty slot where it belongs.
+	 *
+	 * @param document
+	 * @return slot index
+	 */
+	private int slot(int document) {
+		int mask = documents.length - 1;
+		int hash = document * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (documents[slot] != EMPTY && documents[slot] != document) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void allocate(int capacity) {
+		documents = new int[capacity];
+		frequencies = new int[capacity];
+		positions = new int[capacity];
+		Arrays.fill(documents, EMPTY);
+	}
+
+	private void grow() {
+		int[] oldDocuments = documents;
+		int[] oldFrequencies = frequencies;
+		int[] oldPositions = positions;
+		allocate(oldDocuments.length * 2);
+
+		for (int i = 0; i < oldDocuments.length; i++) {
+			if (oldDocuments[i] != EMPTY) {
+				int slot = slot(oldDocuments[i]);
+				documents[slot] = oldDocuments[i];
+				frequencies[slot] = oldFrequencies[i];
+				positions[slot] = oldPositions[i];
+			}
+		}
+	}
+}
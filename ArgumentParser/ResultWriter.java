@@ -0,0 +1,161 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes the results of queries searched by many threads at once in the
+ * order the queries were read, in the same format as
+ * {@link QueryParser#write(String)}. Each query's results are written as soon
+ * as they and the results of every earlier query are done, and then dropped.
+ *
+ * Results finished ahead of an earlier query wait in a reorder buffer with a
+ * fixed number of slots. A query only gets a slot once the query as many
+ * places before it has been written, so reading queries waits for the slowest
+ * search instead of letting finished results pile up without limit.
+ *
+ * <pre>
+ * ResultWriter writer = new ResultWriter(output, 1024);
+ * int sequence = writer.reserve();
+ * // on another thread
+ * writer.complete(sequence, line, results);
+ * // once all are complete
+ * writer.close();
+ * </pre>
+ *
+ * @author CaylaR
+ *
+ */
+public class ResultWriter {
+
+	/** The default number of results held waiting for earlier queries. */
+	public static final int WINDOW = 1024;
+
+	private final BufferedWriter writer;
+	private final Semaphore slots;
+	private final String[] lines;
+	private final List<?>[] results;
+
+	/** Sequence number of the next query to be reserved. */
+	private int reserved;
+
+	/** Sequence number of the next query to be written. */
+	private int next;
+
+	private IOException failure;
+
+	/**
+	 * Opens the output file, holding at most the default number of results.
+	 *
+	 * @param output
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public ResultWriter(Path output) throws IOException {
+		this(output, WINDOW);
+	}
+
+	/**
+	 * Opens the output file.
+	 *
+	 * @param output
+	 * @param window
+	 *            - number of results held waiting for earlier queries
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public ResultWriter(Path output, int window) throws IOException {
+		window = Math.max(window, 1);
+		this.writer = Files.newBufferedWriter(output, Charset.forName("UTF-8"));
+		this.slots = new Semaphore(window);
+		this.lines = new String[window];
+		this.results = new List<?>[window];
+		this.reserved = 0;
+		this.next = 0;
+	}
+
+	/**
+	 * Gives the next query its place in the output, waiting until there is a
+	 * slot for its results.
+	 *
+	 * @return sequence number to complete the query with
+	 * @throws InterruptedException
+	 */
+	public int reserve() throws InterruptedException {
+		slots.acquire();
+		synchronized (this) {
+			return reserved++;
+		}
+	}
+
+	/**
+	 * Hands over the results of a query, writing them along with any later
+	 * results that were waiting for them.
+	 *
+	 * @param sequence
+	 *            - number returned by {@link #reserve()}
+	 * @param line
+	 *            - the query as read
+	 * @param searchresults
+	 *            - results of the query
+	 */
+	public synchronized void complete(int sequence, String line,
+			List<SearchResult> searchresults) {
+		int slot = sequence % lines.length;
+		lines[slot] = line;
+		results[slot] = searchresults;
+
+		while (lines[slot = next % lines.length] != null) {
+			write(lines[slot], results[slot]);
+			lines[slot] = null;
+			results[slot] = null;
+			next++;
+			slots.release();
+		}
+	}
+
+	/**
+	 * Closes the output file. Every reserved query must have been completed.
+	 *
+	 * @throws IOException
+	 *             if writing any of the results failed
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			writer.close();
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Writes the results of one query, remembering the first failure.
+	 *
+	 * @param line
+	 * @param searchresults
+	 */
+	private void write(String line, List<?> searchresults) {
+		if (failure != null) {
+			return;
+		}
+		try {
+			writer.write(line);
+			writer.newLine();
+			for (Object searchresult : searchresults) {
+				writer.write(searchresult.toString());
+				writer.newLine();
+			}
+			writer.newLine();
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+}
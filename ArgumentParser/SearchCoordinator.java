@@ -0,0 +1,450 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Searches several index nodes at once and merges their results, for an
+ * index split by document across processes. Every node is a
+ * {@link SearchServer} with an index of its own documents. A search is sent
+ * to every node at once, and the results for the same path are added up the
+ * way {@link InvertedIndex} adds up words, summing the frequency and keeping
+ * the first position, then sorted by
+ * {@link SearchResult#compareTo(SearchResult)}.
+ *
+ * <pre>
+ * java Driver -d part0 -port 9000
+ * java Driver -d part1 -port 9001
+ * java Driver -nodes localhost:9000,localhost:9001 -q queries.txt -r results.txt
+ * </pre>
+ *
+ * A node that does not answer within the timeout, or answers with an error,
+ * is left out of the results and counted as a failure, so a slow node only
+ * costs the timeout. With a limit every node returns its best results and
+ * the best of those are kept, which is exact as long as no document is on
+ * more than one node.
+ *
+ * @author CaylaR
+ *
+ */
+public class SearchCoordinator implements Searchable {
+
+	/** The default milliseconds to wait for a node. */
+	public static final int TIMEOUT = 1000;
+
+	/** The default number of node requests sent at once. */
+	public static final int CONNECTIONS = 64;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final List<String> nodes;
+	private final int timeout;
+	private final WorkQueue minions;
+	private final AtomicLong version;
+	private final LongAdder failures;
+
+	/**
+	 * Starts a coordinator for the given nodes, waiting the default time for
+	 * each of them.
+	 *
+	 * @param nodes
+	 *            - host:port of every node
+	 */
+	public SearchCoordinator(List<String> nodes) {
+		this(nodes, TIMEOUT);
+	}
+
+	/**
+	 * Starts a coordinator for the given nodes.
+	 *
+	 * @param nodes
+	 *            - host:port of every node
+	 * @param timeout
+	 *            - milliseconds to wait for a node before leaving it out
+	 */
+	public SearchCoordinator(List<String> nodes, int timeout) {
+		this.nodes = new ArrayList<>(nodes);
+		this.timeout = Math.max(timeout, 1);
+		this.minions = WorkQueue.perTask(CONNECTIONS);
+		this.version = new AtomicLong();
+		this.failures = new LongAdder();
+	}
+
+	/**
+	 * Returns the number of node requests that failed or timed out.
+	 *
+	 * @return number of failures
+	 */
+	public long failures() {
+		return failures.sum();
+	}
+
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries) {
+		return search(queries, 0);
+	}
+
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries, int limit) {
+		if (limit <= 0) {
+			return new ArrayList<>();
+		}
+		return search(queries, limit);
+	}
+
+	/**
+	 * Returns a new version every time, since the nodes may change their
+	 * indexes at any time without telling the coordinator.
+	 *
+	 * @return new version
+	 */
+	@Override
+	public long version() {
+		return version.incrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return "Nodes: " + nodes.size() + ", failures: " + failures();
+	}
+
+	/**
+	 * Sends the search to every node and merges their results. The calling
+	 * thread asks the first node itself.
+	 *
+	 * @param queries
+	 * @param limit
+	 *            - maximum number of results, or 0 for all of them
+	 * @return list of searchresults
+	 */
+	private List<SearchResult> search(List<String> queries, int limit) {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(timeout);
+		String url;
+		try {
+			url = "/search?q=" + URLEncoder.encode(join(queries), "UTF-8")
+					+ (limit > 0 ? "&limit=" + limit : "");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+
+		List<FutureTask<List<SearchResult>>> futures = new ArrayList<>();
+		for (int i = 1; i < nodes.size(); i++) {
+			FutureTask<List<SearchResult>> future = new FutureTask<>(
+					new Request(nodes.get(i), url));
+			futures.add(future);
+			minions.execute(future);
+		}
+
+		Map<String, SearchResult> merged = new HashMap<>();
+		if (!nodes.isEmpty()) {
+			try {
+				merge(merged, new Request(nodes.get(0), url).call());
+			} catch (IOException e) {
+				failed(nodes.get(0), e);
+			}
+		}
+
+		for (int i = 0; i < futures.size(); i++) {
+			FutureTask<List<SearchResult>> future = futures.get(i);
+			try {
+				merge(merged, future.get(
+						Math.max(deadline - System.nanoTime(), 0),
+						TimeUnit.NANOSECONDS));
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				failed(nodes.get(i + 1), e.getCause());
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				failed(nodes.get(i + 1), e);
+			}
+		}
+
+		List<SearchResult> results = new ArrayList<>(merged.values());
+		Collections.sort(results);
+		if (limit > 0 && results.size() > limit) {
+			results = new ArrayList<>(results.subList(0, limit));
+		}
+		return results;
+	}
+
+	/**
+	 * Adds the results of one node, updating the result of any path already
+	 * found on another node.
+	 *
+	 * @param merged
+	 *            - results by path
+	 * @param results
+	 */
+	private static void merge(Map<String, SearchResult> merged,
+			List<SearchResult> results) {
+		for (SearchResult result : results) {
+			SearchResult found = merged.get(result.getPath());
+			if (found == null) {
+				merged.put(result.getPath(), result);
+			} else {
+				found.update(result.getFrequency(), result.getPosition());
+			}
+		}
+	}
+
+	private void failed(String node, Throwable cause) {
+		failures.increment();
+		System.err.println("No results from node " + node + " " + cause);
+	}
+
+	private static String join(List<String> queries) {
+		StringBuilder joined = new StringBuilder();
+		for (String query : queries) {
+			if (joined.length() > 0) {
+				joined.append(' ');
+			}
+			joined.append(query);
+		}
+		return joined.toString();
+	}
+
+	/**
+	 * Asks one node for its results.
+	 */
+	private class Request implements Callable<List<SearchResult>> {
+
+		private final String node;
+		private final String url;
+
+		public Request(String node, String url) {
+			this.node = node;
+			this.url = url;
+		}
+
+		@Override
+		public List<SearchResult> call() throws IOException {
+			HttpURLConnection connection = (HttpURLConnection) new URL(
+					"http://" + node + url).openConnection();
+			connection.setConnectTimeout(timeout);
+			connection.setReadTimeout(timeout);
+			try {
+				int status = connection.getResponseCode();
+				if (status != HttpURLConnection.HTTP_OK) {
+					throw new IOException("Status " + status);
+				}
+				try (InputStream body = connection.getInputStream()) {
+					return results(new JsonReader(new InputStreamReader(body,
+							UTF8)).read());
+				}
+			} finally {
+				connection.disconnect();
+			}
+		}
+
+		/**
+		 * Turns the parsed response of a node into searchresults.
+		 *
+		 * @param response
+		 * @return list of searchresults
+		 * @throws IOException
+		 *             if the response is not a list of results
+		 */
+		private List<SearchResult> results(Object response) throws IOException {
+			try {
+				List<?> found = (List<?>) ((Map<?, ?>) response).get("results");
+				List<SearchResult> results = new ArrayList<>(found.size());
+				for (Object item : found) {
+					Map<?, ?> result = (Map<?, ?>) item;
+					results.add(new SearchResult(((Number) result
+							.get("frequency")).intValue(), ((Number) result
+							.get("position")).intValue(), (String) result
+							.get("path")));
+				}
+				return results;
+			} catch (ClassCastException | NullPointerException e) {
+				throw new IOException("Unexpected response", e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the JSON written by {@link SearchServer}: objects, arrays,
+	 * strings, whole numbers, booleans and null.
+	 */
+	private static class JsonReader {
+
+		private final Reader reader;
+		private int next;
+
+		public JsonReader(Reader reader) throws IOException {
+			this.reader = reader;
+			this.next = reader.read();
+		}
+
+		public Object read() throws IOException {
+			skip();
+			switch (next) {
+			case '{':
+				return object();
+			case '[':
+				return array();
+			case '"':
+				return string();
+			case 't':
+				word("true");
+				return Boolean.TRUE;
+			case 'f':
+				word("false");
+				return Boolean.FALSE;
+			case 'n':
+				word("null");
+				return null;
+			default:
+				return number();
+			}
+		}
+
+		private Map<String, Object> object() throws IOException {
+			Map<String, Object> object = new HashMap<>();
+			advance();
+			skip();
+			if (next == '}') {
+				advance();
+				return object;
+			}
+			while (true) {
+				skip();
+				String key = string();
+				skip();
+				expect(':');
+				object.put(key, read());
+				skip();
+				if (next == '}') {
+					advance();
+					return object;
+				}
+				expect(',');
+			}
+		}
+
+		private List<Object> array() throws IOException {
+			List<Object> array = new ArrayList<>();
+			advance();
+			skip();
+			if (next == ']') {
+				advance();
+				return array;
+			}
+			while (true) {
+				array.add(read());
+				skip();
+				if (next == ']') {
+					advance();
+					return array;
+				}
+				expect(',');
+			}
+		}
+
+		private String string() throws IOException {
+			expect('"');
+			StringBuilder string = new StringBuilder();
+			while (next != '"') {
+				if (next < 0) {
+					throw new IOException("Unterminated string");
+				}
+				if (next == '\\') {
+					advance();
+					switch (next) {
+					case 'n':
+						string.append('\n');
+						break;
+					case 'r':
+						string.append('\r');
+						break;
+					case 't':
+						string.append('\t');
+						break;
+					case 'b':
+						string.append('\b');
+						break;
+					case 'f':
+						string.append('\f');
+						break;
+					case 'u':
+						char[] hex = new char[4];
+						for (int i = 0; i < 4; i++) {
+							advance();
+							hex[i] = (char) next;
+						}
+						try {
+							string.append((char) Integer.parseInt(
+									new String(hex), 16));
+						} catch (NumberFormatException e) {
+							throw new IOException("Bad escape", e);
+						}
+						break;
+					default:
+						string.append((char) next);
+					}
+				} else {
+					string.append((char) next);
+				}
+				advance();
+			}
+			advance();
+			return string.toString();
+		}
+
+		private Long number() throws IOException {
+			StringBuilder number = new StringBuilder();
+			while (next == '-' || (next >= '0' && next <= '9')) {
+				number.append((char) next);
+				advance();
+			}
+			try {
+				return Long.parseLong(number.toString());
+			} catch (NumberFormatException e) {
+				throw new IOException("Unexpected " + (char) next, e);
+			}
+		}
+
+		private void word(String word) throws IOException {
+			for (int i = 0; i < word.length(); i++) {
+				expect(word.charAt(i));
+			}
+		}
+
+		private void expect(char c) throws IOException {
+			if (next != c) {
+				throw new IOException("Expected " + c);
+			}
+			advance();
+		}
+
+		private void skip() throws IOException {
+			while (next == ' ' || next == '\n' || next == '\r' || next == '\t') {
+				advance();
+			}
+		}
+
+		private void advance() throws IOException {
+			next = reader.read();
+		}
+	}
+}
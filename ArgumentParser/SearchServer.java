@@ -0,0 +1,330 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers searches over HTTP while the index stays in memory, using the HTTP
+ * server built into the JDK with a {@link WorkQueue} answering the requests,
+ * so many searches run at once.
+ *
+ * <pre>
+ * GET /search?q=query+words[&amp;limit=10]
+ * {"query":"query words","results":[{"path":"...","frequency":2,"position":5}]}
+ *
+ * GET /stats
+ * {"requests":120,"mean":85,"p50":63,"p90":143,"p99":511,"max":1630}
+ * </pre>
+ *
+ * The query is split into words like a line of a query file, and the results
+ * are the same as {@link QueryParser} writes for that line. Without a limit
+ * every result is returned. The stats give how long searches took in
+ * microseconds, from a {@link LatencyHistogram}.
+ *
+ * Unless given an address, the server only listens on the loopback
+ * interface, so the index is not reachable from other machines by accident.
+ *
+ * @author CaylaR
+ *
+ */
+public class SearchServer {
+
+	/** The default port when not specified. */
+	public static final int PORT = 8080;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Searchable index;
+	private final HttpServer server;
+	private final WorkQueue workers;
+	private final LatencyHistogram latency;
+
+	/**
+	 * Starts a server on the given loopback port, answering requests with the
+	 * default number of threads.
+	 *
+	 * @param index
+	 * @param port
+	 *            - port to listen on, or 0 for any free port
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public SearchServer(Searchable index, int port) throws IOException {
+		this(index, port, WorkQueue.DEFAULT);
+	}
+
+	/**
+	 * Starts a server on the given loopback port.
+	 *
+	 * @param index
+	 * @param port
+	 *            - port to listen on, or 0 for any free port
+	 * @param threads
+	 *            - number of threads answering requests
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public SearchServer(Searchable index, int port, int threads)
+			throws IOException {
+		this(index, InetAddress.getLoopbackAddress(), port, threads);
+	}
+
+	/**
+	 * Starts a server on the given address and port.
+	 *
+	 * @param index
+	 * @param address
+	 *            - address to listen on, or null for every interface
+	 * @param port
+	 *            - port to listen on, or 0 for any free port
+	 * @param threads
+	 *            - number of threads answering requests
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public SearchServer(Searchable index, InetAddress address, int port,
+			int threads) throws IOException {
+		this.index = index;
+		this.latency = new LatencyHistogram();
+		this.workers = new WorkQueue(threads);
+		this.server = HttpServer.create(new InetSocketAddress(address, port),
+				0);
+		server.createContext("/search", new SearchHandler());
+		server.createContext("/stats", new StatsHandler());
+		server.setExecutor(workers);
+		server.start();
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 *
+	 * @return port number
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the latencies of the searches answered so far.
+	 *
+	 * @return histogram of latencies
+	 */
+	public LatencyHistogram latency() {
+		return latency;
+	}
+
+	/**
+	 * Stops accepting requests, waits for the ones being answered and stops
+	 * the threads.
+	 */
+	public void shutdown() {
+		server.stop(0);
+		workers.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return "Port: " + getPort() + ", " + latency;
+	}
+
+	/**
+	 * Splits a query string into its decoded parameters.
+	 *
+	 * @param query
+	 *            - raw query of the request URI, or null
+	 * @return parameters by name
+	 */
+	private static Map<String, String> parameters(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		if (query == null) {
+			return parameters;
+		}
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			try {
+				if (equals < 0) {
+					parameters.put(URLDecoder.decode(pair, "UTF-8"), "");
+				} else {
+					parameters.put(URLDecoder.decode(pair.substring(0, equals),
+							"UTF-8"), URLDecoder.decode(
+							pair.substring(equals + 1), "UTF-8"));
+				}
+			} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+				// skip parameters that are not encoded properly
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Writes a string as a JSON string, with quotes and escapes.
+	 *
+	 * @param json
+	 * @param string
+	 */
+	private static void quote(StringBuilder json, String string) {
+		json.append('"');
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			switch (c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * Sends a JSON response and closes the exchange.
+	 *
+	 * @param exchange
+	 * @param status
+	 * @param json
+	 * @throws IOException
+	 */
+	private static void send(HttpExchange exchange, int status, String json)
+			throws IOException {
+		byte[] bytes = json.getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream body = exchange.getResponseBody()) {
+			body.write(bytes);
+		}
+	}
+
+	/**
+	 * Sends an error as a JSON object with a message.
+	 *
+	 * @param exchange
+	 * @param status
+	 * @param message
+	 * @throws IOException
+	 */
+	private static void error(HttpExchange exchange, int status, String message)
+			throws IOException {
+		StringBuilder json = new StringBuilder("{\"error\":");
+		quote(json, message);
+		json.append('}');
+		send(exchange, status, json.toString());
+	}
+
+	/**
+	 * Answers a search and records how long it took.
+	 */
+	private class SearchHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			long start = System.nanoTime();
+			try {
+				if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+					error(exchange, 405, "Only GET is supported");
+					return;
+				}
+
+				Map<String, String> parameters = parameters(exchange
+						.getRequestURI().getRawQuery());
+				String query = parameters.get("q");
+				if (query == null) {
+					error(exchange, 400, "Missing query parameter q");
+					return;
+				}
+
+				int limit = 0;
+				if (parameters.containsKey("limit")) {
+					try {
+						limit = Integer.parseInt(parameters.get("limit"));
+					} catch (NumberFormatException e) {
+						limit = -1;
+					}
+					if (limit <= 0) {
+						error(exchange, 400, "Unacceptable limit");
+						return;
+					}
+				}
+
+				List<String> words = WordParser.parseText(query);
+				long search = System.nanoTime();
+				List<SearchResult> results = limit > 0 ? index.partialSearch(
+						words, limit) : index.partialSearch(words);
+				Metrics.GLOBAL.searched(System.nanoTime() - search);
+
+				StringBuilder json = new StringBuilder("{\"query\":");
+				quote(json, query);
+				json.append(",\"results\":[");
+				for (int i = 0; i < results.size(); i++) {
+					SearchResult result = results.get(i);
+					if (i > 0) {
+						json.append(',');
+					}
+					json.append("{\"path\":");
+					quote(json, result.getPath());
+					json.append(",\"frequency\":").append(result.getFrequency());
+					json.append(",\"position\":").append(result.getPosition());
+					json.append('}');
+				}
+				json.append("]}");
+				send(exchange, 200, json.toString());
+			} catch (RuntimeException e) {
+				System.err.println("Search failed " + e);
+				error(exchange, 500, "Search failed");
+			} finally {
+				exchange.close();
+				latency.record(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Answers with the latencies of the searches so far.
+	 */
+	private class StatsHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				StringBuilder json = new StringBuilder();
+				json.append("{\"requests\":").append(latency.count());
+				json.append(",\"mean\":").append(latency.mean());
+				json.append(",\"p50\":").append(latency.percentile(0.5));
+				json.append(",\"p90\":").append(latency.percentile(0.9));
+				json.append(",\"p99\":").append(latency.percentile(0.99));
+				json.append(",\"max\":").append(latency.max());
+				json.append('}');
+				send(exchange, 200, json.toString());
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
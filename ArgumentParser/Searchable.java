@@ -0,0 +1,43 @@
+import java.util.List;
+
+/**
+ * Anything that can answer partial searches, such as an InvertedIndex built in
+ * memory or an IndexSegment opened from disk.
+ * 
+ * @author CaylaR
+ * 
+ */
+public interface Searchable {
+
+	/**
+	 * Finds every document containing a word that starts with one of the
+	 * queries, sorted by {@link SearchResult#compareTo(SearchResult)}.
+	 * 
+	 * @param queries
+	 *            - list of cleaned query words
+	 * @return list of searchresults
+	 */
+	public List<SearchResult> partialSearch(List<String> queries);
+
+	/**
+	 * Finds the best documents containing a word that starts with one of the
+	 * queries. Returns the same results as the first limit results of
+	 * {@link #partialSearch(List)}, without sorting every matching document.
+	 * 
+	 * @param queries
+	 *            - list of cleaned query words
+	 * @param limit
+	 *            - maximum number of results
+	 * @return list of at most limit searchresults
+	 */
+	public List<SearchResult> partialSearch(List<String> queries, int limit);
+
+	/**
+	 * Returns a number that changes whenever the results of a search could
+	 * change. Results computed after reading the version are up to date for
+	 * as long as it stays the same.
+	 * 
+	 * @return current version
+	 */
+	public long version();
+}
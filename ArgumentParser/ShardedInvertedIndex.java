@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * An InvertedIndex split into shards by word, each an InvertedIndex of its
+ * own with its own skip list, postings and prefix dictionary. Every word
+ * belongs to the shard picked by its hash, so threads adding different words
+ * mostly work in different shards, and a change only makes the dictionary of
+ * the shards it touched out of date.
+ *
+ * All shards share a single {@link DocumentTable}, so a document has the same
+ * id in every shard. A search walks the words starting with each query in
+ * every shard and adds up the documents in one collector, giving the same
+ * results as a single InvertedIndex. With a work queue the shards are
+ * searched at once, each into a collector of its own that is merged at the
+ * end.
+ *
+ * The index can be used anywhere an InvertedIndex is, and writes the same
+ * output.
+ *
+ * @author CaylaR
+ *
+ */
+public class ShardedInvertedIndex extends InvertedIndex {
+
+	private final DocumentTable documents;
+	private final InvertedIndex[] shards;
+	private final WorkQueue minions;
+
+	/**
+	 * Starts an empty index with the given number of shards, searching them
+	 * on the calling thread.
+	 *
+	 * @param shards
+	 */
+	public ShardedInvertedIndex(int shards) {
+		this(shards, 0);
+	}
+
+	/**
+	 * Starts an empty index with the given number of shards.
+	 *
+	 * @param shards
+	 * @param threads
+	 *            - number of threads searching and merging shards at once,
+	 *            or 0 to use the calling thread
+	 */
+	public ShardedInvertedIndex(int shards, int threads) {
+		this(new DocumentTable(), shards, threads);
+	}
+
+	private ShardedInvertedIndex(DocumentTable documents, int shards,
+			int threads) {
+		super(documents);
+		this.documents = documents;
+		this.shards = new InvertedIndex[Math.max(shards, 1)];
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new InvertedIndex(documents);
+		}
+		this.minions = threads > 0 ? new WorkQueue(threads) : null;
+	}
+
+	/**
+	 * Returns the shard a word belongs to.
+	 *
+	 * @param word
+	 * @param shards
+	 *            - number of shards
+	 * @return shard index
+	 */
+	public static int shard(String word, int shards) {
+		int hash = word.hashCode() * 0x9E3779B9;
+		return ((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % shards;
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return number of shards
+	 */
+	public int shards() {
+		return shards.length;
+	}
+
+	/**
+	 * Stops the threads searching the shards, if there are any.
+	 */
+	public void shutdown() {
+		if (minions != null) {
+			minions.shutdown();
+		}
+	}
+
+	/**
+	 * Adds a single location of a word to the shard it belongs to.
+	 *
+	 * @param word
+	 * @param path
+	 * @param location
+	 */
+	@Override
+	public void add(String word, String path, Integer location) {
+		InvertedIndex shard = shards[shard(word, shards.length)];
+		shard.add(word, documents.id(path), location);
+		shard.modified();
+	}
+
+	/**
+	 * Adds all of the words of a mini InvertedIndex, every shard taking the
+	 * words that belong to it.
+	 *
+	 * @param mini
+	 */
+	@Override
+	public void addAll(final InvertedIndex mini) {
+		each(new Task() {
+			@Override
+			public void run(int shard) {
+				shards[shard].addAll(mini, shard, shards.length);
+			}
+		});
+	}
+
+	@Override
+	void addAll(String word, PostingList list, int[] mapping) {
+		shards[shard(word, shards.length)].addAll(word, list, mapping);
+	}
+
+	/**
+	 * Moves every shard to a new version.
+	 */
+	@Override
+	void modified() {
+		for (InvertedIndex shard : shards) {
+			shard.modified();
+		}
+	}
+
+	/**
+	 * Deletes a document from every shard.
+	 *
+	 * @param path
+	 *            - normalized absolute path of the document
+	 * @return true if the document was in the index
+	 */
+	@Override
+	public boolean delete(String path) {
+		int id = documents.retire(path);
+		if (id < 0) {
+			return false;
+		}
+		for (InvertedIndex shard : shards) {
+			shard.deleted(id);
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the words of a document in every shard at once, like
+	 * {@link InvertedIndex#replace(String, List)}.
+	 *
+	 * @param path
+	 *            - normalized absolute path of the document
+	 * @param words
+	 *            - every word of the document, in order
+	 */
+	@Override
+	public void replace(String path, List<String> words) {
+		int id = documents.reserve(path);
+		for (int i = 0; i < words.size(); i++) {
+			String word = words.get(i);
+			shards[shard(word, shards.length)].add(word, id, i + 1);
+		}
+		int old = documents.publish(path, id);
+		for (InvertedIndex shard : shards) {
+			if (old >= 0) {
+				shard.deleted(old);
+			} else {
+				shard.modified();
+			}
+		}
+	}
+
+	/**
+	 * Removes the postings of deleted documents from every shard.
+	 *
+	 * @return number of words taken out
+	 */
+	@Override
+	public int compact() {
+		int removed = 0;
+		for (InvertedIndex shard : shards) {
+			removed += shard.compact();
+		}
+		return removed;
+	}
+
+	/**
+	 * Writes the words of every shard in order, in the same format as a
+	 * single InvertedIndex.
+	 *
+	 * @param output
+	 * @param threads
+	 */
+	@Override
+	public void outputInvertedIndex(Path output, int threads) {
+		try {
+			IndexWriter.write(words(), documents, output, threads);
+		} catch (IOException e) {
+			System.err.println("No File Written");
+		}
+	}
+
+	/**
+	 * Writes the words of every shard to a single segment file.
+	 *
+	 * @param output
+	 * @throws IOException
+	 */
+	@Override
+	public void writeSegment(Path output) throws IOException {
+		IndexSegment.write(words(), documents, output);
+	}
+
+	/**
+	 * Returns the words of every shard and their postings, in order.
+	 *
+	 * @return sorted words and their postings
+	 */
+	@Override
+	TreeMap<String, PostingList> words() {
+		TreeMap<String, PostingList> words = new TreeMap<>();
+		for (InvertedIndex shard : shards) {
+			words.putAll(shard.words());
+		}
+		return words;
+	}
+
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries) {
+		return collect(queries).results();
+	}
+
+	@Override
+	public List<SearchResult> partialSearch(List<String> queries, int limit) {
+		return collect(queries).results(limit);
+	}
+
+	/**
+	 * Returns the sum of the versions of the shards, which changes whenever
+	 * any of them does.
+	 *
+	 * @return current version
+	 */
+	@Override
+	public long version() {
+		long version = 0;
+		for (InvertedIndex shard : shards) {
+			version += shard.version();
+		}
+		return version;
+	}
+
+	/**
+	 * Adds up the documents found by every shard.
+	 *
+	 * @param queries
+	 * @return collected documents
+	 */
+	private ResultCollector collect(final List<String> queries) {
+		if (minions == null) {
+			ResultCollector collector = collector();
+			for (InvertedIndex shard : shards) {
+				shard.collect(queries, collector);
+			}
+			return collector;
+		}
+
+		final ResultCollector[] collectors = new ResultCollector[shards.length];
+		each(new Task() {
+			@Override
+			public void run(int shard) {
+				collectors[shard] = collector();
+				shards[shard].collect(queries, collectors[shard]);
+			}
+		});
+		for (int i = 1; i < collectors.length; i++) {
+			collectors[0].addAll(collectors[i]);
+		}
+		return collectors[0];
+	}
+
+	/**
+	 * Creates a collector that looks up paths in the shared document table.
+	 *
+	 * @return empty collector
+	 */
+	private ResultCollector collector() {
+		return new ResultCollector(0) {
+			@Override
+			protected String path(int document) {
+				return documents.path(document);
+			}
+		};
+	}
+
+	/**
+	 * Runs a task for every shard, on the work queue if there is one. The
+	 * calling thread takes the first shard itself and returns once every
+	 * shard is done.
+	 *
+	 * @param task
+	 */
+	private void each(final Task task) {
+		if (minions == null || shards.length == 1) {
+			for (int i = 0; i < shards.length; i++) {
+				task.run(i);
+			}
+			return;
+		}
+
+		List<FutureTask<Void>> futures = new ArrayList<>();
+		for (int i = 1; i < shards.length; i++) {
+			final int shard = i;
+			FutureTask<Void> future = new FutureTask<>(new Runnable() {
+				@Override
+				public void run() {
+					task.run(shard);
+				}
+			}, null);
+			futures.add(future);
+			minions.execute(future);
+		}
+		task.run(0);
+
+		for (FutureTask<Void> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Work done for one shard.
+	 */
+	private abstract static class Task {
+
+		public abstract void run(int shard);
+	}
+
+	@Override
+	public String toString() {
+		return "Shards: " + shards.length + ", documents: " + documents.size();
+	}
+}
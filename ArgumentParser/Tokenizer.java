@@ -0,0 +1,231 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Splits text into cleaned words in a single pass over the characters,
+ * without regular expressions or intermediate strings. Characters are
+ * lowercased as they are read and each word is built in a reusable buffer.
+ *
+ * By default a word is a run of letters and digits, the same as
+ * {@link WordParser#parseText(String)}: every other character, including the
+ * underscore, separates words. In html mode words are separated by whitespace
+ * only and any other character that is not a letter or digit is dropped from
+ * the word, the same as {@link HTMLCleaner#parseWords(String)}. In both modes
+ * only the ASCII letters and digits left after lowercasing are kept.
+ *
+ * <pre>
+ * Tokenizer tokenizer = new Tokenizer();
+ * tokenizer.reset(line);
+ * while (tokenizer.next()) {
+ * 	String word = tokenizer.token();
+ * }
+ * </pre>
+ *
+ * Text can also be given in pieces with {@link #feed(CharSequence)}, in
+ * which case a word running up to the end of a piece is kept until it is
+ * completed by the next piece or by {@link #end()}.
+ *
+ * @author CaylaR
+ *
+ */
+public class Tokenizer {
+
+	/** Lowercase letter or digit for every ASCII character, or 0 if none. */
+	private static final char[] WORD = new char[128];
+
+	static {
+		for (char c = '0'; c <= '9'; c++) {
+			WORD[c] = c;
+		}
+		for (char c = 'a'; c <= 'z'; c++) {
+			WORD[c] = c;
+			WORD[c - 'a' + 'A'] = c;
+		}
+	}
+
+	private final boolean html;
+	private char[] buffer;
+	private int length;
+
+	private CharSequence text;
+	private int position;
+	private boolean dotless;
+
+	/** True if more text may follow the current text. */
+	private boolean streaming;
+
+	/** True if the buffer holds the start of a word from earlier text. */
+	private boolean partial;
+
+	/** Lowercased characters still to be read before the text. */
+	private String pending;
+	private int pendingIndex;
+
+	/**
+	 * Starts a tokenizer with the same words as
+	 * {@link WordParser#parseText(String)}.
+	 */
+	public Tokenizer() {
+		this(false);
+	}
+
+	/**
+	 * Starts a tokenizer.
+	 *
+	 * @param html
+	 *            - true to only split words on whitespace, like
+	 *            {@link HTMLCleaner#parseWords(String)}
+	 */
+	public Tokenizer(boolean html) {
+		this.html = html;
+		this.buffer = new char[32];
+		this.length = 0;
+		reset("");
+	}
+
+	/**
+	 * Starts reading words from new text.
+	 *
+	 * @param text
+	 */
+	public void reset(CharSequence text) {
+		this.text = text;
+		this.position = 0;
+		this.length = 0;
+		this.pending = null;
+		this.streaming = false;
+		this.partial = false;
+
+		// String.toLowerCase turns I into a dotless i in these locales
+		String language = Locale.getDefault().getLanguage();
+		this.dotless = language.equals("tr") || language.equals("az");
+	}
+
+	/**
+	 * Continues reading words from the next piece of text. Unlike
+	 * {@link #reset(CharSequence)}, a word at the end of the earlier text is
+	 * continued rather than ended, and {@link #next()} returns false at the end
+	 * of the piece while a word may still be unfinished.
+	 *
+	 * @param text
+	 */
+	public void feed(CharSequence text) {
+		this.text = text;
+		this.position = 0;
+		this.streaming = true;
+	}
+
+	/**
+	 * Marks the end of the text given with {@link #feed(CharSequence)}, so the
+	 * next call to {@link #next()} returns any unfinished word.
+	 */
+	public void end() {
+		this.text = "";
+		this.position = 0;
+		this.streaming = false;
+	}
+
+	/**
+	 * Moves to the next word in the text.
+	 *
+	 * @return true if there was another word, false at the end of the text
+	 */
+	public boolean next() {
+		if (!partial) {
+			length = 0;
+		}
+		partial = false;
+		int end = text.length();
+
+		while (true) {
+			char c;
+			if (pending != null) {
+				if (pendingIndex == pending.length()) {
+					pending = null;
+					continue;
+				}
+				c = pending.charAt(pendingIndex++);
+			} else if (position < end) {
+				c = text.charAt(position++);
+				if (c >= 128) {
+					lowercase(c);
+					continue;
+				} else if (dotless && c == 'I') {
+					c = '\u0131';
+				}
+			} else if (streaming) {
+				partial = true;
+				return false;
+			} else {
+				return length > 0;
+			}
+
+			char word = c < 128 ? WORD[c] : 0;
+			if (word != 0) {
+				append(word);
+			} else if ((!html || whitespace(c)) && length > 0) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the buffer holding the current word. The buffer is reused by
+	 * the next call to {@link #next()}.
+	 *
+	 * @return buffer starting with the current word
+	 */
+	public char[] buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns the number of characters in the current word.
+	 *
+	 * @return length of the current word
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns the current word as a string.
+	 *
+	 * @return current word
+	 */
+	public String token() {
+		return new String(buffer, 0, length);
+	}
+
+	/**
+	 * Lowercases a character outside of ASCII the same way
+	 * {@link String#toLowerCase()} does, so that any ASCII letters or digits
+	 * that result are kept, such as the i from an uppercase dotted I. When a
+	 * character lowercases to more than one character, the rest are read
+	 * before moving on in the text.
+	 *
+	 * @param c
+	 */
+	private void lowercase(char c) {
+		pending = String.valueOf(c).toLowerCase();
+		pendingIndex = 0;
+	}
+
+	private void append(char c) {
+		if (length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, length * 2);
+		}
+		buffer[length++] = c;
+	}
+
+	/**
+	 * Tests for the characters matched by \s in a regular expression.
+	 *
+	 * @param c
+	 * @return true if the character is whitespace
+	 */
+	private static boolean whitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f'
+				|| c == '\r';
+	}
+}
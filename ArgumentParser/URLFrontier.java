@@ -0,0 +1,224 @@
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the links a crawl has seen, accepting at most a given number
+ * of links in total.
+ *
+ * Links are compared by their normalized form, so the same page written in
+ * different ways is only crawled once, and pages with the same path on
+ * different hosts are still told apart. Instead of the links themselves only
+ * a 64-bit fingerprint of every link seen is kept, in a hash set split into
+ * separately locked stripes, so a crawl of millions of links takes little
+ * memory and threads adding links rarely wait on each other. Accepted links
+ * are queued per host by a {@link HostScheduler}.
+ *
+ * @author CaylaR
+ *
+ */
+public class URLFrontier {
+
+	/** The default number of links accepted when not specified. */
+	public static final int DEFAULT = 50;
+
+	private static final int STRIPES = 64;
+
+	private final int limit;
+	private final AtomicInteger accepted;
+	private final Stripe[] seen;
+
+	/**
+	 * Starts an empty frontier accepting the default number of links.
+	 */
+	public URLFrontier() {
+		this(DEFAULT);
+	}
+
+	/**
+	 * Starts an empty frontier.
+	 *
+	 * @param limit
+	 *            - maximum number of links accepted
+	 */
+	public URLFrontier(int limit) {
+		this.limit = limit;
+		this.accepted = new AtomicInteger();
+		this.seen = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			seen[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Adds a link to be crawled, unless it has been seen before, it is not an
+	 * http link or the limit has been reached.
+	 *
+	 * @param url
+	 * @return the normalized link if it was added and should be crawled, or
+	 *         null
+	 */
+	public String add(URL url) {
+		String link = normalize(url);
+		if (link == null || accepted.get() >= limit) {
+			return null;
+		}
+
+		long fingerprint = fingerprint(link);
+		if (!seen[(int) (fingerprint >>> 58)].add(fingerprint)) {
+			return null;
+		}
+		if (accepted.incrementAndGet() > limit) {
+			accepted.decrementAndGet();
+			return null;
+		}
+		return link;
+	}
+
+	/**
+	 * Returns the number of links accepted so far.
+	 *
+	 * @return number of links accepted
+	 */
+	public int size() {
+		return accepted.get();
+	}
+
+	/**
+	 * Returns the normalized form of an http link: the scheme and host in
+	 * lowercase, without the default port, the fragment or any . and ..
+	 * segments, and with a path of at least /. Only plain http links are
+	 * accepted, since {@link HTTPFetcher} does not speak https.
+	 *
+	 * @param url
+	 * @return normalized link, or null if it is not an http link
+	 */
+	public static String normalize(URL url) {
+		String scheme = url.getProtocol().toLowerCase(Locale.ROOT);
+		if (!scheme.equals("http")) {
+			return null;
+		}
+		if (url.getHost() == null || url.getHost().isEmpty()) {
+			return null;
+		}
+
+		int port = url.getPort();
+		if (port == url.getDefaultPort()) {
+			port = -1;
+		}
+		String path = url.getPath().isEmpty() ? "/" : url.getPath();
+
+		if (!path.startsWith("//")) {
+			try {
+				path = new URI(path).normalize().getRawPath();
+			} catch (URISyntaxException e) {
+				// keep the path as it was written
+			}
+		}
+		while (path.startsWith("/../") || path.equals("/..")) {
+			path = path.substring(3);
+		}
+		if (path.isEmpty()) {
+			path = "/";
+		}
+
+		StringBuilder link = new StringBuilder();
+		link.append(scheme).append("://").append(url.getHost().toLowerCase(
+				Locale.ROOT));
+		if (port != -1) {
+			link.append(':').append(port);
+		}
+		link.append(path);
+		if (url.getQuery() != null) {
+			link.append('?').append(url.getQuery());
+		}
+		return link.toString();
+	}
+
+	/**
+	 * Returns the scheme, host and port of a normalized link.
+	 *
+	 * @param link
+	 * @return host part of the link
+	 */
+	public static String host(String link) {
+		int slash = link.indexOf('/', link.indexOf("://") + 3);
+		return slash < 0 ? link : link.substring(0, slash);
+	}
+
+	/**
+	 * Hashes a link to 64 bits, mixing the bits so every part of the
+	 * fingerprint depends on the whole link.
+	 *
+	 * @param link
+	 * @return fingerprint of the link, never 0
+	 */
+	private static long fingerprint(String link) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < link.length(); i++) {
+			hash = (hash ^ link.charAt(i)) * 0x100000001B3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * A part of the set of fingerprints with its own lock, stored in an open
+	 * addressing table of primitive longs.
+	 */
+	private static class Stripe {
+
+		private long[] table;
+		private int size;
+
+		public Stripe() {
+			this.table = new long[64];
+			this.size = 0;
+		}
+
+		/**
+		 * Adds a fingerprint to the set.
+		 *
+		 * @param fingerprint
+		 *            - any value other than 0
+		 * @return true if it was not in the set yet
+		 */
+		public synchronized boolean add(long fingerprint) {
+			int mask = table.length - 1;
+			int slot = (int) fingerprint & mask;
+			while (table[slot] != 0) {
+				if (table[slot] == fingerprint) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			table[slot] = fingerprint;
+			if (++size * 2 > table.length) {
+				grow();
+			}
+			return true;
+		}
+
+		private void grow() {
+			long[] old = table;
+			table = new long[old.length * 2];
+			int mask = table.length - 1;
+			for (long fingerprint : old) {
+				if (fingerprint != 0) {
+					int slot = (int) fingerprint & mask;
+					while (table[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					table[slot] = fingerprint;
+				}
+			}
+		}
+	}
+}
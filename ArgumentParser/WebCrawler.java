@@ -1,8 +1,6 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -19,10 +17,12 @@ public class WebCrawler {
 	private final Logger logger = LogManager
 			.getLogger(MultithreadedInvertedIndexBuilder.class);
 	private final WorkQueue minions;
-	private int pending;
 	private final InvertedIndex indexmap;
-	private final MultiReaderLock lock;
-	private final HashSet<String> links = new HashSet<>(); // TODO Initialize in the constructor
+	private final URLFrontier frontier;
+	private final HostScheduler scheduler;
+
+	/** The default number of fetches at once with a thread per Minion. */
+	public static final int CONNECTIONS = 100;
 
 	/**
 	 * Constructor for the WebCrawler
@@ -31,14 +31,70 @@ public class WebCrawler {
 	 * @param threads
 	 */
 	public WebCrawler(InvertedIndex index, int threads) {
+		this(index, threads, false);
+	}
+
+	/**
+	 * Constructor for the WebCrawler. With perTask every Minion runs on a
+	 * thread of its own, a virtual thread if the JVM supports them, and
+	 * threads only limits how many links are fetched at once. Minions mostly
+	 * wait on the network, so this lets many more fetches be in flight than
+	 * there are worker threads.
+	 * 
+	 * @param index
+	 * @param threads
+	 *            - number of worker threads, or of fetches at once with
+	 *            perTask
+	 * @param perTask
+	 *            - true to start a thread for every Minion
+	 */
+	public WebCrawler(InvertedIndex index, int threads, boolean perTask) {
+		this(index, threads, perTask, URLFrontier.DEFAULT);
+	}
+
+	/**
+	 * Constructor for the WebCrawler, crawling at most limit links.
+	 * 
+	 * @param index
+	 * @param threads
+	 * @param perTask
+	 * @param limit
+	 *            - maximum number of links crawled
+	 */
+	public WebCrawler(InvertedIndex index, int threads, boolean perTask,
+			int limit) {
+		this(index, threads, perTask, limit, HostScheduler.CONNECTIONS,
+				HostScheduler.DELAY);
+	}
+
+	/**
+	 * Constructor for the WebCrawler, crawling at most limit links and
+	 * sending at most connections requests at once to any one host, at least
+	 * delay milliseconds apart.
+	 * 
+	 * @param index
+	 * @param threads
+	 * @param perTask
+	 * @param limit
+	 *            - maximum number of links crawled
+	 * @param connections
+	 *            - maximum number of requests to one host at once
+	 * @param delay
+	 *            - milliseconds between requests to one host
+	 */
+	public WebCrawler(InvertedIndex index, int threads, boolean perTask,
+			int limit, int connections, long delay) {
 		indexmap = index;
-		lock = new MultiReaderLock();
-		pending = 0;
-		if (threads != 0) {
+		frontier = new URLFrontier(limit);
+		if (perTask) {
+			minions = WorkQueue.perTask(threads != 0 ? threads
+					: CONNECTIONS);
+		} else if (threads != 0) {
 			minions = new WorkQueue(threads);
 		} else {
 			minions = new WorkQueue();
 		}
+		scheduler = new HostScheduler(minions, connections, delay);
 	}
 
 	/**
@@ -46,15 +102,8 @@ public class WebCrawler {
 	 * done. This is useful for resetting the counters or shutting down the work
 	 * queue.
 	 */
-	public synchronized void finish() {
-		try {
-			while (pending > 0) {
-				logger.debug("Waiting until finished");
-				this.wait();
-			}
-		} catch (InterruptedException e) {
-			logger.debug("Finish interrupted", e);
-		}
+	public void finish() {
+		scheduler.finish();
 	}
 
 	/**
@@ -62,49 +111,61 @@ public class WebCrawler {
 	 * finished. Necessary to prevent our code from running forever in the
 	 * background.
 	 */
-	public synchronized void shutdown() {
+	public void shutdown() {
 		logger.debug("Shutting down");
 		finish();
+		scheduler.shutdown();
 		minions.shutdown();
 	}
 
 	/**
-	 * Sends the minions to start executing work from the WorkQueue
+	 * Returns the number of links crawled and the scheduler metrics.
+	 */
+	@Override
+	public String toString() {
+		return "Links: " + frontier.size() + ", " + scheduler;
+	}
+
+	/**
+	 * Fetches a page and scans it while it is downloaded, adding its words to
+	 * a local InvertedIndex and adding its links to the frontier. Every new
+	 * link gets a minion, scheduled for its host, and once the page is done
+	 * the words are added to the main InvertedIndex. Links are resolved
+	 * against the page they were found on, and links that are not valid are
+	 * skipped.
 	 * 
-	 * @param directory
-	 * @return
+	 * @param url
 	 */
-	private void parse(String url, String basestring) {
-		List<String> wordList = new ArrayList<>();
-		List<String> urlList = new ArrayList<>();
+	private void parse(String url) {
 		try {
-			URL base = new URL(basestring);
-			URL absoluteURL = new URL(base, url);
-			logger.debug("Absolute: {}", absoluteURL.toString());
-			
-			HTMLFetcher fetcher = new HTMLFetcher(absoluteURL.toString());
-			String link = fetcher.fetch();
-			
-			logger.debug("Fetched html for {}", url);
-			urlList = HTMLLinkParser.listLinks(link);
-			logger.debug("Got links for {}", url);
-			
-			lock.lockWrite();
-			for (String newLink : urlList) {
-				URL temporary = new URL(base, newLink);
-				if (!this.links.contains(temporary.getPath())
-						&& (temporary.getPath() != null)) {
-					if (this.links.size() < 50) {
-						this.links.add(temporary.getPath());
-						this.minions.execute(new Minion(temporary.getPath(),
-								basestring));
+			final URL page = new URL(url);
+			logger.debug("Absolute: {}", url);
+
+			final InvertedIndex local = new InvertedIndex();
+			HTMLScanner scanner = new HTMLScanner() {
+				@Override
+				protected void word(String word, int position) {
+					local.add(word, page.toString(), position);
+				}
+
+				@Override
+				protected void link(String link) {
+					try {
+						schedule(frontier.add(new URL(page, link)));
+					} catch (MalformedURLException e) {
+						logger.debug("Skipped link {}", link);
 					}
 				}
-			}
-			lock.unlockWrite();
-			link = HTMLCleaner.cleanHTML(link);
-			wordList = HTMLCleaner.parseWords(link);
-			addWordsToIndex(wordList, absoluteURL.toString());
+			};
+
+			long start = System.nanoTime();
+			HTMLFetcher fetcher = new HTMLFetcher(url);
+			fetcher.fetch(scanner);
+			scanner.finish();
+			Metrics.GLOBAL.fetched(System.nanoTime() - start);
+			Metrics.GLOBAL.indexed(scanner.position());
+			logger.debug("Fetched and scanned html for {}", url);
+			indexmap.addAll(local);
 
 		} catch (MalformedURLException e) {
 			System.out.println("URL is not valid");
@@ -124,8 +185,8 @@ public class WebCrawler {
 			// TODO Just add url, Paths.get(url) might not be what you expect
 //			local.add(wordList.get(i), Paths.get(url), i + 1);
 			local.add(wordList.get(i), url, i + 1);
-			logger.debug("Added {} to local", wordList.get(i));
 		}
+		Metrics.GLOBAL.indexed(wordList.size());
 		indexmap.addAll(local);
 	}
 
@@ -135,58 +196,45 @@ public class WebCrawler {
 	 * @param link
 	 */
 	public void crawl(String link) {
+		try {
+			schedule(frontier.add(new URL(link)));
+		} catch (MalformedURLException e) {
+			System.out.println("URL is not valid");
+		}
+	}
 
-		lock.lockWrite();
-		this.links.add(link);
-		lock.unlockWrite();
-		this.minions.execute(new Minion(link, link));
-
+	/**
+	 * Schedules a minion for a link added to the frontier.
+	 * 
+	 * @param link
+	 *            - normalized link, or null if it was not added
+	 */
+	private void schedule(String link) {
+		if (link != null) {
+			scheduler.execute(URLFrontier.host(link), new Minion(link));
+		}
 	}
 
 	/**
-	 * Traverses a url link and creates a single Minion for each found url
+	 * Crawls a single link, once its host allows it.
 	 * 
 	 * @author CaylaR
 	 * 
 	 */
 	private class Minion implements Runnable {
 
-		String link, base;
+		private final String link;
 
-		public Minion(String link, String base) {
+		public Minion(String link) {
 			logger.debug("Minion created for {}", link);
 			this.link = link;
-			this.base = base;
-			incrementPending();
 		}
 
 		@Override
 		public void run() {
-			parse(link, base);
-			decrementPending();
+			parse(link);
 			logger.debug("Minion finished {}", link);
 		}
 	}
 
-	/**
-	 * Indicates that we now have additional "pending" work to wait for.
-	 */
-	private synchronized void incrementPending() {
-		pending++;
-		logger.debug("Pending is now {}", pending);
-	}
-
-	/**
-	 * Indicates that we now have one less "pending" work, and will notify any
-	 * waiting threads if we no longer have any more pending work left.
-	 */
-	private synchronized void decrementPending() {
-		pending--;
-		logger.debug("Pending is now {}", pending);
-
-		if (pending <= 0) {
-			this.notifyAll();
-		}
-	}
-
 }
\ No newline at end of file
@@ -16,8 +16,8 @@ public class WordParser {
 	/**
 	 * Converts text into a consistent format by converting text to lower- case,
 	 * replacing non-word characters and underscores with a single space, and
-	 * finally removing leading and trailing whitespace. (See the {@link String}
-	 * class for several helpful methods.)
+	 * finally removing leading and trailing whitespace. The words are found by
+	 * a {@link Tokenizer} in a single pass instead of with regular expressions.
 	 * 
 	 * @param text
 	 *            - original text
@@ -25,35 +25,34 @@ public class WordParser {
 	 */
 	public static String cleanText(String text) {
 
-		text = text.toLowerCase();
-		text = text.replaceAll("_", " ");
-		text = text.replaceAll("\\W", " ");
-		text = text.trim().replaceAll(" +", " ");
-
-		return text;
+		Tokenizer tokenizer = new Tokenizer();
+		tokenizer.reset(text);
+		StringBuilder builder = new StringBuilder(text.length());
+		while (tokenizer.next()) {
+			if (builder.length() > 0) {
+				builder.append(' ');
+			}
+			builder.append(tokenizer.buffer(), 0, tokenizer.length());
+		}
+		return builder.toString();
 	}
 
 	/**
-	 * Splits text into words by whitespaces, cleans the resulting words using
+	 * Splits text into words, cleaned the same way as
 	 * {@link #cleanText(String)} so that they are in a consistent format, and
 	 * adds non-empty words to an {@link ArrayList}.
 	 * 
-	 * You must use the {@link #cleanText(String)} method and an enhanced for
-	 * loop to receive full credit for this method.
-	 * 
 	 * @param text
 	 *            - original text
 	 * @return list of cleaned words
 	 */
 	public static List<String> parseText(String text) {
 
-		text = cleanText(text);
-		String[] newtext = text.split("\\s");
+		Tokenizer tokenizer = new Tokenizer();
+		tokenizer.reset(text);
 		List<String> list = new ArrayList<>();
-		for (String item : newtext) {
-			if (!item.isEmpty()) {
-				list.add(item);
-			}
+		while (tokenizer.next()) {
+			list.add(tokenizer.token());
 		}
 		return list;
 	}
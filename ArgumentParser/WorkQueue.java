@@ -1,4 +1,9 @@
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -7,11 +12,23 @@ import org.apache.logging.log4j.Logger;
  * A simple work queue implementation based on the IBM developerWorks article by
  * Brian Goetz.
  * 
+ * Work requests are kept in a lock-free queue and idle workers wait on a
+ * semaphore that is released once for every request, so adding work only wakes
+ * a single worker instead of all of them. The queue also counts the work that
+ * has been added but not finished yet, so callers can wait for all of it with
+ * {@link #finish()} instead of counting it themselves.
+ * 
+ * A queue made with {@link #perTask(int)} has no pool of workers and starts a
+ * new thread for every request instead, using virtual threads when the JVM
+ * supports them. This suits work that mostly waits on the network, where the
+ * number of requests running at once should not be capped by the number of
+ * threads kept around.
+ * 
  * @see <a
  *      href="http://www.ibm.com/developerworks/library/j-jtp0730/index.html">Java
  *      Theory and Practice: Thread Pools and Work Queues</a>
  */
-public class WorkQueue {
+public class WorkQueue implements Executor {
 
 	/**
 	 * Pool of worker threads that will wait in the background until work is
@@ -20,7 +37,23 @@ public class WorkQueue {
 	private final PoolWorker[] workers;
 
 	/** Queue of pending work requests. */
-	private final LinkedList<Runnable> queue;
+	private final ConcurrentLinkedQueue<Runnable> queue;
+
+	/**
+	 * Number of work requests in the queue, plus one per worker on shutdown.
+	 * When starting a thread per request, the number of requests that may
+	 * still start running.
+	 */
+	private final Semaphore available;
+
+	/** Starts a thread per work request, or null when using the workers. */
+	private final ThreadFactory factory;
+
+	/** Number of worker threads, or the limit of requests running at once. */
+	private final int threads;
+
+	/** Number of work requests added but not finished yet. */
+	private final AtomicInteger pending;
 
 	/** Used to signal the queue should be shutdown. */
 	private volatile boolean shutdown;
@@ -46,30 +79,117 @@ public class WorkQueue {
 	 *            number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
-		this.queue = new LinkedList<Runnable>();
-		this.workers = new PoolWorker[threads];
+		this(threads, null);
+	}
+
+	/**
+	 * Starts a work queue that either uses worker threads or starts a new
+	 * thread for every work request.
+	 * 
+	 * @param threads
+	 *            number of worker threads, or the number of requests allowed
+	 *            to run at once
+	 * @param factory
+	 *            starts a thread per request, or null to use worker threads
+	 */
+	private WorkQueue(int threads, ThreadFactory factory) {
+		this.queue = new ConcurrentLinkedQueue<Runnable>();
+		this.available = new Semaphore(factory == null ? 0 : threads);
+		this.pending = new AtomicInteger();
+		this.factory = factory;
+		this.threads = threads;
+		this.workers = new PoolWorker[factory == null ? threads : 0];
 
 		shutdown = false;
 
 		// start the threads so they are waiting in the background
-		for (int i = 0; i < threads; i++) {
+		for (int i = 0; i < workers.length; i++) {
 			workers[i] = new PoolWorker();
 			workers[i].start();
 		}
 	}
 
+	/**
+	 * Starts a work queue that runs every work request on a thread of its
+	 * own, preferably a virtual thread, with at most limit requests running
+	 * at once. Requests beyond the limit wait on their thread until another
+	 * request finishes, so adding work never blocks.
+	 * 
+	 * @param limit
+	 *            number of requests allowed to run at once
+	 * @return work queue
+	 */
+	public static WorkQueue perTask(int limit) {
+		return new WorkQueue(limit, threadFactory());
+	}
+
 	/**
 	 * Adds a work request to the queue. A thread will process this request when
-	 * available.
+	 * available. The request counts as pending until it has finished running.
 	 * 
 	 * @param r
 	 *            work request (in the form of a {@link Runnable} object)
 	 */
-	public void execute(Runnable r) {
-		synchronized (queue) {
-			queue.addLast(r);
-			queue.notifyAll();
+	@Override
+	public void execute(final Runnable r) {
+		pending.incrementAndGet();
+		Metrics.GLOBAL.queued(1);
+		if (factory == null) {
+			queue.offer(r);
+			available.release();
+			return;
 		}
+
+		factory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					available.acquire();
+				} catch (InterruptedException ex) {
+					Metrics.GLOBAL.queued(-1);
+					finished();
+					Thread.currentThread().interrupt();
+					return;
+				}
+				Metrics.GLOBAL.queued(-1);
+
+				try {
+					if (!shutdown) {
+						WorkQueue.this.run(r);
+					}
+				} finally {
+					available.release();
+					finished();
+				}
+			}
+		}).start();
+	}
+
+	/**
+	 * Waits until all of the work added so far has finished, including any
+	 * work added by that work while it was running.
+	 */
+	public void finish() {
+		synchronized (pending) {
+			try {
+				while (pending.get() > 0) {
+					logger.debug("Waiting until finished");
+					pending.wait();
+				}
+			} catch (InterruptedException e) {
+				logger.debug("Finish interrupted", e);
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of work requests added but not finished yet.
+	 * 
+	 * @return number of pending work requests
+	 */
+	public int pending() {
+		return pending.get();
 	}
 
 	/**
@@ -78,19 +198,65 @@ public class WorkQueue {
 	 */
 	public void shutdown() {
 		shutdown = true;
-
-		synchronized (queue) {
-			queue.notifyAll();
-		}
+		available.release(workers.length);
 	}
 
 	/**
-	 * Returns the number of worker threads being used by the work queue.
+	 * Returns the number of worker threads being used by the work queue, or
+	 * the number of requests allowed to run at once if it starts a thread per
+	 * request.
 	 * 
 	 * @return number of worker threads
 	 */
 	public int size() {
-		return workers.length;
+		return threads;
+	}
+
+	/**
+	 * Runs a work request, reporting any exception instead of letting it end
+	 * the thread.
+	 * 
+	 * @param r
+	 *            work request
+	 */
+	private void run(Runnable r) {
+		try {
+			r.run();
+		} catch (RuntimeException ex) {
+			logger.debug("Work queue encountered exception", ex);
+			System.err.println("Warning: Work queue encountered an "
+					+ "exception while running.");
+		}
+	}
+
+	/**
+	 * Returns a factory for virtual threads if the JVM supports them, or for
+	 * regular threads otherwise. Virtual threads are looked up by reflection
+	 * so the queue still runs on older JVMs.
+	 * 
+	 * @return thread factory
+	 */
+	private static ThreadFactory threadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			logger.debug("Virtual threads not available", e);
+			return Executors.defaultThreadFactory();
+		}
+	}
+
+	/**
+	 * Marks a work request as finished, and wakes up any threads waiting in
+	 * {@link #finish()} once there is no more pending work left.
+	 */
+	private void finished() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (pending) {
+				pending.notifyAll();
+			}
+		}
 	}
 
 	/**
@@ -106,33 +272,27 @@ public class WorkQueue {
 			Runnable r = null;
 
 			while (true) {
-				synchronized (queue) {
-					while (queue.isEmpty() && !shutdown) {
-						try {
-							queue.wait();
-						} catch (InterruptedException ex) {
-							System.err
-									.println("Warning: Work queue interrupted "
-											+ "while waiting.");
-							Thread.currentThread().interrupt();
-						}
-					}
+				try {
+					available.acquire();
+				} catch (InterruptedException ex) {
+					System.err.println("Warning: Work queue interrupted "
+							+ "while waiting.");
+					Thread.currentThread().interrupt();
+					break;
+				}
 
-					if (shutdown) {
-						break;
-					} else {
-						r = queue.removeFirst();
-					}
+				if (shutdown) {
+					break;
 				}
+				r = queue.poll();
+				Metrics.GLOBAL.queued(-1);
 
 				try {
-					r.run();
-				} catch (RuntimeException ex) {
-					logger.debug("Work queue encountered exception", ex);
-					System.err.println("Warning: Work queue encountered an "
-							+ "exception while running.");
+					WorkQueue.this.run(r);
+				} finally {
+					finished();
 				}
 			}
 		}
 	}
-}
\ No newline at end of file
+}